@@ -0,0 +1,24 @@
+#!/usr/bin/env bash
+# Codex notify hook: hand the event to the resident notifier agent when it is up
+# (java -jar slack-notifier.jar --serve), otherwise deliver it from a fresh JVM.
+
+# ------------------ CONFIG (edit these) ------------------
+NOTIFIER_JAR="/Users/ontic/.codex/slack-notifier.jar"
+NOTIFIER_SOCKET="/Users/ontic/.codex/slack_notifier.sock"
+# ---------------------------------------------------------
+
+# Codex appends the event JSON as the last argument
+event="${!#}"
+
+if [[ -S "$NOTIFIER_SOCKET" ]] && command -v nc >/dev/null 2>&1; then
+  # One event per line; raw line breaks in JSON are only whitespace. The agent answers OK once the
+  # event is in its outbox; without that, deliver it from here
+  reply=$(printf '%s\n' "${event//$'\n'/ }" | nc -U "$NOTIFIER_SOCKET" 2>/dev/null)
+  [[ "$reply" == OK* ]] && exit 0
+fi
+
+# AppCDS archive from `./gradlew installCli`, when present
+NOTIFIER_CDS="${NOTIFIER_JAR%.jar}.jsa"
+jvm=()
+[[ -f "$NOTIFIER_CDS" ]] && jvm=(-XX:SharedArchiveFile="$NOTIFIER_CDS")
+exec java ${jvm[@]+"${jvm[@]}"} -XX:TieredStopAtLevel=1 -jar "$NOTIFIER_JAR" "$event"
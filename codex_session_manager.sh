@@ -1,23 +1,53 @@
 #!/usr/bin/env bash
 set -euo pipefail
 
-java -jar "/Users/ontic/.codex/codex-index-generator.jar"
-
 # ------------------ CONFIG (edit these) ------------------
 JSON_FILE_PATH="/Users/ontic/.codex/codex_sessions_index.json"
+INDEXER_JAR="/Users/ontic/.codex/codex-index-generator.jar"
+INDEX_SOCKET="/Users/ontic/.codex/codex_sessions.sock"   # SessionIndexDaemon socket (optional)
 PAGE_SIZE=10
+RECENT_DAYS=30                        # default view lists (and re-walks) only this much history; -a shows everything
 CODEX_BIN="/opt/homebrew/bin/codex"   # codex binary path
 # ---------------------------------------------------------
+
+# Indexer launcher: uses the AppCDS archive from `./gradlew installCli` when present
+INDEXER_CDS="${INDEXER_JAR%.jar}.jsa"
+indexer() {
+  local jvm=()
+  [[ -f "$INDEXER_CDS" ]] && jvm=(-XX:SharedArchiveFile="$INDEXER_CDS")
+  java ${jvm[@]+"${jvm[@]}"} -jar "$INDEXER_JAR" "$@"
+}
+
+# --- resident index daemon (optional) ---
+daemon_request() {
+  [[ -S "$INDEX_SOCKET" ]] && command -v nc >/dev/null 2>&1 || return 1
+  printf '%s\n' "$1" | nc -U "$INDEX_SOCKET" 2>/dev/null
+}
+
+DAEMON_UP=false
+[[ "$(daemon_request PING || true)" == "PONG" ]] && DAEMON_UP=true
+
 # --- flags ---
 DISABLE_BRANCH_FILTER=false
-while getopts ":f" opt; do
+ALL_HISTORY=false
+while getopts ":fa" opt; do
   case "$opt" in
     f) DISABLE_BRANCH_FILTER=true ;;
-    *) echo "Usage: $0 [-f]"; exit 2 ;;
+    a) ALL_HISTORY=true ;;
+    *) echo "Usage: $0 [-f] [-a]"; exit 2 ;;
   esac
 done
 
-command -v jq >/dev/null 2>&1 || { echo "Error: jq is required."; exit 1; }
+# The daemon keeps the index current; otherwise rebuild it (incremental) before querying.
+# Without -a only the last RECENT_DAYS of date partitions are walked and listed; older sessions
+# stay in the index files from the manifest, so jq readers and other queries still see everything.
+# --analytics refreshes per-session aggregates (for --sort) in a detached process; nothing waits on it.
+WINDOW=(--days "$RECENT_DAYS")
+$ALL_HISTORY && WINDOW=()
+rebuild_index() {
+  $DAEMON_UP || indexer --binary --analytics --output "$JSON_FILE_PATH" ${WINDOW[@]+"${WINDOW[@]}"} || true
+}
+rebuild_index
 
 CALL_DIR="$(pwd -P 2>/dev/null || pwd)"
 CWD="$CALL_DIR"
@@ -43,67 +73,42 @@ else
   BRANCH_FILTER="$(detect_branch)"
 fi
 
-[[ -f "$JSON_FILE_PATH" ]] || { echo "Error: JSON not found -> $JSON_FILE_PATH"; exit 1; }
+$DAEMON_UP || [[ -f "$JSON_FILE_PATH" ]] || { echo "Error: JSON not found -> $JSON_FILE_PATH"; exit 1; }
 
 lower() { printf "%s" "$1" | tr '[:upper:]' '[:lower:]'; }
-BF_LOWER="$(lower "$BRANCH_FILTER")"
-
-# --- load + flatten sessions ---
-load_sessions() {
-  local cwd="$1"
-  jq -c --arg cwd "$cwd" '
-    .[$cwd] // empty
-    | to_entries[]
-    | .key as $branch
-    | .value[]
-    | {
-        branch:$branch,
-        time:(.time // ""),
-        sessionId:(.sessionId // ""),
-        file:(.file // ""),
-        firstUserMessage:(.firstUserMessage // ""),
-        jsonlFilePath:(.jsonlFilePath // "")
-      }
-  ' "$JSON_FILE_PATH" || true
-}
 
-refresh_sessions() {
-  java -jar "/Users/ontic/.codex/generate_codex_session_index.jar" || true
-  SESSIONS_JSON=$(load_sessions "$CWD")
-  if [[ -z "${SESSIONS_JSON:-}" ]]; then
-    SESSIONS_SORTED='[]'
-    COUNT=0
-    total_pages=1
+# --- one page of sessions (filtered + sorted by the indexer, one call per page) ---
+# The indexer reads only this directory's shard (codex_sessions_index.shards/), not the whole index.
+# Sets COUNT, total_pages, PAGE and PAGE_ROWS plus the PAGE_* arrays for the rows shown.
+query_page() {
+  local page="$1" out
+  if $DAEMON_UP; then
+    out=$(daemon_request "$(printf 'QUERY\t%s\t%s\t%s\t%s' "$CWD" "$BRANCH_FILTER" "$page" "$PAGE_SIZE")" || true)
   else
-    SESSIONS_SORTED=$(
-      printf "%s\n" "$SESSIONS_JSON" |
-      jq -cs --arg bf "$BF_LOWER" '
-        map(select(.sessionId != "")) |
-        (if ($bf // "") == "" then . else map(select((.branch // "" | ascii_downcase) == $bf)) end) |
-        sort_by(.time) | reverse
-      '
-    )
-    COUNT=$(jq 'length' <<<"$SESSIONS_SORTED")
-    total_pages=$(( (COUNT + PAGE_SIZE - 1) / PAGE_SIZE ))
-    (( total_pages == 0 )) && total_pages=1
+    out=$(indexer --query --output "$JSON_FILE_PATH" \
+      --cwd "$CWD" --branch "$BRANCH_FILTER" --page "$page" --page-size "$PAGE_SIZE" ${WINDOW[@]+"${WINDOW[@]}"} || true)
   fi
-  PAGE=0
+  [[ -n "$out" ]] || out=$'0\t1\t0'
+
+  PAGE_ROWS=0
+  PAGE_BRANCH=(); PAGE_TIME=(); PAGE_SID=(); PAGE_PATH=(); PAGE_MSG=()
+  {
+    IFS=$'\t' read -r COUNT total_pages PAGE
+    while IFS=$'\t' read -r branch time sid path fum; do
+      PAGE_BRANCH[PAGE_ROWS]="$branch"
+      PAGE_TIME[PAGE_ROWS]="$time"
+      PAGE_SID[PAGE_ROWS]="$sid"
+      PAGE_PATH[PAGE_ROWS]="$path"
+      PAGE_MSG[PAGE_ROWS]="$fum"
+      PAGE_ROWS=$(( PAGE_ROWS + 1 ))
+    done
+  } <<<"$out"
 }
 
-SESSIONS_JSON=$(load_sessions "$CWD")
-if [[ -z "${SESSIONS_JSON:-}" ]]; then
-  SESSIONS_SORTED='[]'
-else
-  SESSIONS_SORTED=$(
-    printf "%s\n" "$SESSIONS_JSON" |
-    jq -cs --arg bf "$BF_LOWER" '
-      map(select(.sessionId != "")) |
-      (if ($bf // "") == "" then . else map(select((.branch // "" | ascii_downcase) == $bf)) end) |
-      sort_by(.time) | reverse
-    '
-  )
-fi
-COUNT=$(jq 'length' <<<"$SESSIONS_SORTED")
+refresh_sessions() {
+  rebuild_index
+  PAGE=0
+}
 
 echo "Directory: $CWD"
 if $DISABLE_BRANCH_FILTER; then
@@ -113,10 +118,12 @@ elif [[ -n "$BRANCH_FILTER" ]]; then
 else
   echo "No git branch detected — showing all branches."
 fi
+if ! $ALL_HISTORY && ! $DAEMON_UP; then
+  echo "Showing the last $RECENT_DAYS days (-a for full history)."
+fi
 
 PAGE=0
-total_pages=$(( (COUNT + PAGE_SIZE - 1) / PAGE_SIZE ))
-(( total_pages == 0 )) && total_pages=1
+total_pages=1
 
 # --- helpers ---
 one_line() { printf "%s" "$1" | tr '\r\n' '  ' | awk '{$1=$1; print}'; }
@@ -134,9 +141,8 @@ run_codex_new() {
 
 delete_session() {
   local sid="$1"
-  local path
-  path=$(jq -r --arg sid "$sid" '.[] | select(.sessionId == $sid) | .jsonlFilePath' <<<"$SESSIONS_SORTED" | head -n 1)
-  if [[ -z "$path" || "$path" == "null" ]]; then
+  local path="$2"
+  if [[ -z "$path" || "$path" == "-" ]]; then
     echo "Could not locate file for session $sid."
     return
   fi
@@ -158,26 +164,19 @@ delete_session() {
 }
 
 render_page() {
-  local page=$1
-  local from=$(( page * PAGE_SIZE ))
-  local to=$(( from + PAGE_SIZE ))
-  (( to > COUNT )) && to=$COUNT
+  query_page "$1"
 
   echo
-  echo "Sessions for this directory  [Page $((page+1)) / $total_pages]"
+  echo "Sessions for this directory  [Page $((PAGE+1)) / $total_pages]"
   echo "---------------------------------------------------------------------"
   echo "  0) [NEW] Create a new Codex session"
-  if (( from >= to )); then
+  if (( PAGE_ROWS == 0 )); then
     echo "     (no existing sessions)"
   else
-    jq -r --argjson from "$from" --argjson to "$to" '
-      .[$from:$to][]
-      | [.branch, .time, .sessionId, .file, .firstUserMessage] | @tsv
-    ' <<<"$SESSIONS_SORTED" |
-    nl -w2 -s$'\t' |
-    while IFS=$'\t' read -r idx branch time sid file fum; do
-      preview=$(truncate60 "$(one_line "${fum:-}")")
-      printf " %2d) [%s] %s\n    %s\n" "$idx" "${branch:-}" "${time:-}" "$preview"
+    local i preview
+    for (( i = 0; i < PAGE_ROWS; i++ )); do
+      preview=$(truncate60 "$(one_line "${PAGE_MSG[i]}")")
+      printf " %2d) [%s] %s\n    %s\n" "$(( i + 1 ))" "${PAGE_BRANCH[i]}" "${PAGE_TIME[i]}" "$preview"
     done
   fi
   echo "---------------------------------------------------------------------"
@@ -195,21 +194,20 @@ while true; do
   case "$input_lc" in
     q) break ;;
     n)
-      if (( PAGE + 1 < total_pages )); then ((PAGE++)); else echo "(already on last page)"; fi ;;
+      if (( PAGE + 1 < total_pages )); then PAGE=$(( PAGE + 1 )); else echo "(already on last page)"; fi ;;
     p)
-      if (( PAGE > 0 )); then ((PAGE--)); else echo "(already on first page)"; fi ;;
+      if (( PAGE > 0 )); then PAGE=$(( PAGE - 1 )); else echo "(already on first page)"; fi ;;
     0|new|c)
       run_codex_new
       refresh_sessions ;;
     d*)
       num="${input_lc#d}"
       if [[ "$num" =~ ^[0-9]+$ ]]; then
-        idx=$(( PAGE * PAGE_SIZE + num - 1 ))
-        if (( idx < 0 || idx >= COUNT )); then
+        row=$(( num - 1 ))
+        if (( row < 0 || row >= PAGE_ROWS )); then
           echo "Invalid selection."
         else
-          sid=$(jq -r --argjson idx "$idx" '.[$idx].sessionId' <<<"$SESSIONS_SORTED")
-          delete_session "$sid"
+          delete_session "${PAGE_SID[row]}" "${PAGE_PATH[row]}"
         fi
       else
         echo "Usage: d<number> (e.g., d2 to delete item 2)"
@@ -219,10 +217,15 @@ while true; do
       if [[ "$input_lc" =~ ^[0-9]+$ ]]; then
         sel=$(( input_lc ))
         if (( sel <= 0 )); then echo "Use 0 for NEW."; continue; fi
-        idx=$(( PAGE * PAGE_SIZE + sel - 1 ))
-        if (( idx < 0 || idx >= COUNT )); then echo "Invalid selection."; continue; fi
-        sid=$(jq -r --argjson idx "$idx" '.[$idx].sessionId' <<<"$SESSIONS_SORTED")
-        branch=$(jq -r --argjson idx "$idx" '.[$idx].branch' <<<"$SESSIONS_SORTED")
+        row=$(( sel - 1 ))
+        if (( row >= PAGE_ROWS )); then echo "Invalid selection."; continue; fi
+        sid="${PAGE_SID[row]}"
+        branch="${PAGE_BRANCH[row]}"
+        path="${PAGE_PATH[row]}"
+        # Archived by --compact-older-than: codex only resumes plain .jsonl (gzip -d keeps the mtime)
+        if [[ "$path" == *.jsonl.gz && -f "$path" ]]; then
+          gzip -d "$path" || { echo "Could not restore archived session: $path"; continue; }
+        fi
         echo "Resuming session: $sid (branch: $branch)"
         if [[ -x "$CODEX_BIN" ]]; then
           "$CODEX_BIN" resume "$sid" || echo "codex exited with non-zero status."
@@ -3,14 +3,25 @@ export ULTRON_JIRA_WEBHOOK_URL=""
 export JUGGERNAUT_REVIEW_WEBHOOK_URL=""
 export GALACTUS_GITLAB_MR_WEBHOOK_URL=""
 
-# jar Files for indexer, notifier
-./gradlew codexIndexShadow slackNotifierShadow
+# jar Files for indexer, notifier, index daemon, installed into ~/.codex together with
+# AppCDS archives (*.jsa) trained against the installed jars; rerun after a JDK upgrade
+./gradlew installCli
 
-# move both jars to the codex folder
-mv build/libs/codex-index-generator.jar build/libs/slack-notifier.jar ~/.codex/
+# optional: keep the session index resident (answers the picker over ~/.codex/codex_sessions.sock)
+# nohup java -jar ~/.codex/session-index-daemon.jar --analytics >/dev/null 2>&1 &
 
-# copy session manager script
-cp codex_session_manager.sh ~/.codex/
+# per-session turns, duration, tool calls and tokens (kept fresh in the background by --analytics), e.g.
+# the most expensive sessions of the last week:
+# java -jar ~/.codex/codex-index-generator.jar --query --sort tokens --days 7
+
+# optional: gzip transcripts untouched for 30 days (the picker restores one before resuming it)
+# java -jar ~/.codex/codex-index-generator.jar --compact-older-than 30
+
+# optional: keep the Slack notifier resident (pooled webhook connections, fed over ~/.codex/slack_notifier.sock)
+# nohup java -jar ~/.codex/slack-notifier.jar --serve >/dev/null 2>&1 &
+
+# copy session manager script and notify hook
+cp codex_session_manager.sh codex_notify.sh ~/.codex/
 
 # copy prompts folder
 mkdir -p ~/.codex/prompts
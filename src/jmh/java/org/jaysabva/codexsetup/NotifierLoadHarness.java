@@ -0,0 +1,598 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load harness for the notification path: replays agent-turn-complete events through
+ * {@link SlackNotifier#handle} at a fixed offered rate against an embedded stub webhook, and
+ * reports throughput, end-to-end latency and what never arrived. Events are synthetic (a mix of
+ * findings JSON, Gitlab-MR JSON and [JIRA-EXPLAIN text) or replayed from a file of recorded hook
+ * arguments, one per line.
+ *
+ * Each event is tagged with a marker in a field its route renders, so the stub can tell which
+ * events a (possibly coalesced) post carried. Latency runs from the event's scheduled send time to
+ * the 2xx post carrying its marker; a backlog in front of the notifier counts against it. Events
+ * neither delivered nor dead-lettered by the end of {@code --settle} are reported undelivered.
+ *
+ * Delivery strategies, one run each (the stub is shared, the outbox dir is per run):
+ * <pre>
+ * agent    each event appended by its caller (a connection thread), in-process outbox drainer (what --serve does)
+ * drainer  each event handled by its caller, outbox drained by a spawned --drain process (the hook)
+ * direct   outbox unavailable, so every post goes out synchronously from the caller
+ * </pre>
+ * The stub injects latency, 5xx errors and 429s (random, or from a per-webhook rate limit like
+ * Slack's), so retries, backoff and coalescing show up in the numbers. By default each route has
+ * its own webhook; {@code --shared-webhook} points all three at one, as for a team sharing it.
+ *
+ * Run with {@code ./gradlew notifierLoad -Pload.args='--rate 50 --events 500 --strategy agent,drainer'}.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+public class NotifierLoadHarness {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Pattern MARKER = Pattern.compile("LOADTEST-(\\d+)-(\\d+)");
+    private static final long POLL_MILLIS = 100;
+
+    public static class Options {
+        // Offered load: events per second and events in flight at once
+        public double rate = 20;
+        public int concurrency = 4;
+        public int events = 200;
+        // Recorded hook arguments, one per line, cycled to reach events; synthetic when null
+        public Path eventsFile;
+        // Synthetic mix: findings, gitlab_mr, jira
+        public int[] mix = { 1, 1, 1 };
+        public int maxFindings = 8;
+        public long seed = 42;
+        public List<String> strategies = List.of("agent");
+        public boolean sharedWebhook;
+        // How long to wait for stragglers after the last event went out
+        public long settleSeconds = 60;
+        public Path workDir;
+
+        // Stub webhook behaviour
+        public long latencyMillis = 50;
+        public double errorRate;
+        public double throttleRate;
+        public int limitPerSecond;
+        public int retryAfterSeconds = 1;
+    }
+
+    /** One replayed event: its route and the tagged hook argument. */
+    static class Event {
+        final String route;
+        final String json;
+
+        Event(String route, String json) {
+            this.route = route;
+            this.json = json;
+        }
+    }
+
+    static class Result {
+        String strategy;
+        int events;
+        Map<String, Integer> perRoute = new TreeMap<>();
+        int ignored;
+        int delivered;
+        int dead;
+        int undelivered;
+        long duplicates;
+        double seconds;
+        long[] latencies;
+        Map<String, long[]> routeLatencies = new TreeMap<>();
+        long posts;
+        Map<Integer, Long> statuses = new TreeMap<>();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options opts = parseArgs(args);
+        if (opts == null) {
+            System.err.println("Usage: NotifierLoadHarness [--rate <events/s>] [--concurrency <n>] [--events <n>]\n"
+                    + "    [--events-file <recorded.jsonl>] [--mix <findings,mr,jira>] [--max-findings <n>] [--seed <n>]\n"
+                    + "    [--strategy agent,drainer,direct] [--shared-webhook] [--settle <seconds>] [--work <dir>]\n"
+                    + "    [--latency <ms>] [--error-rate <0..1>] [--throttle-rate <0..1>] [--limit-per-second <n>] [--retry-after <s>]");
+            return;
+        }
+        Path work = opts.workDir != null ? Files.createDirectories(opts.workDir) : Files.createTempDirectory("notifier-load");
+
+        try (StubWebhook stub = StubWebhook.start(opts)) {
+            // Read once by SlackNotifier's static initialiser, so set before it is touched
+            String base = "http://127.0.0.1:" + stub.port();
+            System.setProperty("JUGGERNAUT_REVIEW_WEBHOOK_URL", base + (opts.sharedWebhook ? "/shared" : "/review"));
+            System.setProperty("GALACTUS_GITLAB_MR_WEBHOOK_URL", base + (opts.sharedWebhook ? "/shared" : "/mr"));
+            System.setProperty("ULTRON_JIRA_WEBHOOK_URL", base + (opts.sharedWebhook ? "/shared" : "/jira"));
+
+            List<String> source = opts.eventsFile != null ? recorded(opts.eventsFile) : null;
+            List<Result> results = new ArrayList<>();
+            for (int run = 0; run < opts.strategies.size(); run++) {
+                String strategy = opts.strategies.get(run);
+                List<Event> events = events(opts, source, run);
+                Result r = replay(strategy, events, opts, stub, work.resolve(run + "-" + strategy), run);
+                print(r, opts);
+                results.add(r);
+            }
+            if (results.size() > 1) printComparison(results);
+        }
+        System.out.println("Notifier output and outboxes: " + work);
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                            Replay                                                              *//
+    //**********************************************************************************************************************************//
+
+    private static Result replay(String strategy, List<Event> events, Options opts, StubWebhook stub, Path dir, int run)
+            throws IOException, InterruptedException {
+        Files.createDirectories(dir);
+        Path outboxDir = dir.resolve("outbox");
+        if (strategy.equals("direct")) {
+            // A regular file where the outbox dir should be: append fails and SlackNotifier posts directly
+            Files.writeString(dir.resolve("no-outbox"), "");
+            outboxDir = dir.resolve("no-outbox").resolve("outbox");
+        } else if (!strategy.equals("agent") && !strategy.equals("drainer")) {
+            throw new IllegalArgumentException("Unknown strategy: " + strategy);
+        }
+        System.setProperty("codex.outbox.dir", outboxDir.toString());
+
+        // [Slack] retry / failure lines would drown the report
+        PrintStream stderr = System.err;
+        PrintStream log = new PrintStream(new FileOutputStream(dir.resolve("notifier.log").toFile()), true, StandardCharsets.UTF_8);
+        System.setErr(log);
+
+        Thread drainer = null;
+        if (strategy.equals("agent")) drainer = startDrainer(SlackOutbox.open());
+
+        stub.reset(run);
+        int expected = 0;
+        for (Event e : events) if (e.route != null) expected++;
+        long[] scheduled = new long[events.size()];
+        ExecutorService callers = Executors.newFixedThreadPool(opts.concurrency);
+        long start = System.nanoTime();
+        long intervalNanos = (long) (1e9 / opts.rate);
+        try {
+            // Open loop: events go out on schedule whether or not earlier ones have finished
+            for (int i = 0; i < events.size(); i++) {
+                scheduled[i] = start + i * intervalNanos;
+                long wait = scheduled[i] - System.nanoTime();
+                if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+                String json = events.get(i).json;
+                callers.execute(() -> handle(json));
+            }
+            callers.shutdown();
+            callers.awaitTermination(1, TimeUnit.DAYS);
+
+            long settleUntil = System.nanoTime() + TimeUnit.SECONDS.toNanos(opts.settleSeconds);
+            while (System.nanoTime() < settleUntil
+                    && stub.delivered.size() + deadMarkers(outboxDir, run).size() < expected) {
+                Thread.sleep(POLL_MILLIS);
+            }
+        } finally {
+            if (drainer != null) {
+                drainer.interrupt();
+                drainer.join();
+                SlackOutbox.inProcess = null;
+            }
+            // Spawned --drain processes still retrying would post into the next run
+            ProcessHandle.current().children().forEach(ProcessHandle::destroy);
+            System.setErr(stderr);
+            log.close();
+        }
+
+        return collect(strategy, events, scheduled, start, stub, deadMarkers(outboxDir, run));
+    }
+
+    private static void handle(String json) {
+        try {
+            SlackNotifier.handle(json);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed handling event: " + e.getMessage());
+        }
+    }
+
+    // Same loop as the agent's drainer thread
+    private static Thread startDrainer(SlackOutbox outbox) {
+        SlackOutbox.inProcess = outbox;
+        Thread drainer = new Thread(() -> {
+            while (true) {
+                try {
+                    if (!outbox.drain(false)) Thread.sleep(POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Outbox drainer failed: " + e.getMessage());
+                    return;
+                }
+            }
+        }, "slack-outbox");
+        drainer.setDaemon(true);
+        drainer.start();
+        return drainer;
+    }
+
+    private static Result collect(String strategy, List<Event> events, long[] scheduled, long start, StubWebhook stub,
+                                  Map<Integer, Boolean> dead) {
+        Result r = new Result();
+        r.strategy = strategy;
+        r.events = events.size();
+        Map<String, List<Long>> byRoute = new HashMap<>();
+        List<Long> all = new ArrayList<>();
+        long last = start;
+        for (int i = 0; i < events.size(); i++) {
+            Event e = events.get(i);
+            if (e.route == null) {
+                r.ignored++;
+                continue;
+            }
+            r.perRoute.merge(e.route, 1, Integer::sum);
+            Long at = stub.delivered.get(i);
+            if (at != null) {
+                r.delivered++;
+                long latency = Math.max(0, at - scheduled[i]);
+                all.add(latency);
+                byRoute.computeIfAbsent(e.route, k -> new ArrayList<>()).add(latency);
+                last = Math.max(last, at);
+            } else if (dead.containsKey(i)) {
+                r.dead++;
+            } else {
+                r.undelivered++;
+            }
+        }
+        r.seconds = (last - start) / 1e9;
+        r.latencies = sorted(all);
+        for (Map.Entry<String, List<Long>> e : byRoute.entrySet()) r.routeLatencies.put(e.getKey(), sorted(e.getValue()));
+        r.duplicates = stub.duplicates.sum();
+        r.posts = stub.posts.sum();
+        stub.statuses.forEach((status, n) -> r.statuses.put(status, n.sum()));
+        return r;
+    }
+
+    // Events of this run named in the outbox's dead-letter log
+    private static Map<Integer, Boolean> deadMarkers(Path outboxDir, int run) {
+        Map<Integer, Boolean> dead = new HashMap<>();
+        Path deadLog = outboxDir.resolve("dead.log");
+        try {
+            if (!Files.isRegularFile(deadLog)) return dead;
+            Matcher m = MARKER.matcher(Files.readString(deadLog, StandardCharsets.UTF_8));
+            while (m.find()) {
+                if (Integer.parseInt(m.group(1)) == run) dead.put(Integer.parseInt(m.group(2)), Boolean.TRUE);
+            }
+        } catch (IOException ignore) {
+        }
+        return dead;
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                            Events                                                              *//
+    //**********************************************************************************************************************************//
+
+    private static List<String> recorded(Path file) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) lines.add(line.trim());
+        }
+        if (lines.isEmpty()) throw new IllegalArgumentException("No events in " + file);
+        return lines;
+    }
+
+    private static List<Event> events(Options opts, List<String> recorded, int run) {
+        Random rnd = new Random(opts.seed);
+        int weights = Arrays.stream(opts.mix).sum();
+        List<Event> events = new ArrayList<>(opts.events);
+        for (int i = 0; i < opts.events; i++) {
+            String json;
+            if (recorded != null) {
+                json = recorded.get(i % recorded.size());
+            } else {
+                int pick = rnd.nextInt(weights);
+                long seed = opts.seed + i;
+                String message;
+                if ((pick -= opts.mix[0]) < 0) {
+                    message = SyntheticSessionCorpus.findingsPayload(seed, 1 + rnd.nextInt(opts.maxFindings));
+                } else if (pick - opts.mix[1] < 0) {
+                    message = SyntheticSessionCorpus.gitlabMrPayload(seed);
+                } else {
+                    message = SyntheticSessionCorpus.jiraExplainPayload(seed, rnd.nextInt(4));
+                }
+                json = SyntheticSessionCorpus.notifyEvent(message);
+            }
+            events.add(tag(json, "LOADTEST-" + run + "-" + i));
+        }
+        return events;
+    }
+
+    /**
+     * Put {@code marker} where the event's route renders it: the findings overall explanation (in
+     * the last part of a split message), the MR's PR field, the end of a Jira summary. Events that
+     * route nowhere come back untagged with a null route.
+     */
+    static Event tag(String json, String marker) {
+        try {
+            JsonNode root = MAPPER.readTree(json);
+            if (!root.isObject() || !"agent-turn-complete".equals(root.path("type").asText())) return new Event(null, json);
+            ObjectNode event = (ObjectNode) root;
+            String message = event.path("last-assistant-message").asText("");
+
+            JsonNode assistant = null;
+            try {
+                assistant = message.trim().startsWith("{") ? MAPPER.readTree(message) : null;
+            } catch (IOException notJson) {
+                // falls through to the text routes
+            }
+            if (assistant != null && assistant.isObject()) {
+                ObjectNode fields = (ObjectNode) assistant;
+                if (fields.path("findings").isArray()) {
+                    fields.put("overall_explanation", (fields.path("overall_explanation").asText("") + " " + marker).trim());
+                    event.put("last-assistant-message", fields.toString());
+                    return new Event("findings", event.toString());
+                }
+                if ("Gitlab-MR".equalsIgnoreCase(fields.path("type").asText())) {
+                    fields.put("pr", (fields.path("pr").asText("") + " " + marker).trim());
+                    event.put("last-assistant-message", fields.toString());
+                    return new Event("gitlab_mr", event.toString());
+                }
+            }
+            if (message.startsWith("[JIRA-EXPLAIN") && message.indexOf(']') > 14) {
+                event.put("last-assistant-message", message + "\n\n" + marker);
+                return new Event("jira", event.toString());
+            }
+            return new Event(null, json);
+        } catch (IOException e) {
+            return new Event(null, json);
+        }
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                            Report                                                              *//
+    //**********************************************************************************************************************************//
+
+    private static void print(Result r, Options opts) {
+        System.out.printf("%n== %s: %d events offered at %.1f/s, concurrency %d%n", r.strategy, r.events, opts.rate, opts.concurrency);
+        System.out.println("   routes      " + r.perRoute + (r.ignored > 0 ? ", ignored " + r.ignored : ""));
+        System.out.printf("   delivered   %d   dead-lettered %d   undelivered %d   duplicate deliveries %d%n",
+                r.delivered, r.dead, r.undelivered, r.duplicates);
+        System.out.printf("   throughput  %.1f events/s over %.1f s%n", r.seconds > 0 ? r.delivered / r.seconds : 0, r.seconds);
+        System.out.printf("   end-to-end  p50 %s   p99 %s   max %s%n",
+                millis(percentile(r.latencies, 50)), millis(percentile(r.latencies, 99)), millis(percentile(r.latencies, 100)));
+        for (Map.Entry<String, long[]> e : r.routeLatencies.entrySet()) {
+            System.out.printf("     %-10s p50 %s   p99 %s%n", e.getKey(), millis(percentile(e.getValue(), 50)), millis(percentile(e.getValue(), 99)));
+        }
+        System.out.println("   stub posts  " + r.posts + " " + r.statuses);
+    }
+
+    private static void printComparison(List<Result> results) {
+        System.out.printf("%n%-9s %10s %10s %10s %6s %8s %7s%n", "strategy", "events/s", "p50", "p99", "dead", "undeliv", "posts");
+        for (Result r : results) {
+            System.out.printf("%-9s %10.1f %10s %10s %6d %8d %7d%n", r.strategy, r.seconds > 0 ? r.delivered / r.seconds : 0,
+                    millis(percentile(r.latencies, 50)), millis(percentile(r.latencies, 99)), r.dead, r.undelivered, r.posts);
+        }
+    }
+
+    private static long[] sorted(List<Long> values) {
+        long[] out = new long[values.size()];
+        for (int i = 0; i < out.length; i++) out[i] = values.get(i);
+        Arrays.sort(out);
+        return out;
+    }
+
+    // Nearest rank; -1 when nothing arrived
+    private static long percentile(long[] sorted, int p) {
+        if (sorted.length == 0) return -1;
+        int rank = (int) Math.ceil(p / 100.0 * sorted.length);
+        return sorted[Math.max(0, Math.min(sorted.length - 1, rank - 1))];
+    }
+
+    private static String millis(long nanos) {
+        return nanos < 0 ? "-" : String.format("%.0f ms", nanos / 1e6);
+    }
+
+    private static Options parseArgs(String[] args) {
+        Options opts = new Options();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--rate":
+                        opts.rate = Double.parseDouble(args[++i]);
+                        break;
+                    case "--concurrency":
+                        opts.concurrency = Integer.parseInt(args[++i]);
+                        break;
+                    case "--events":
+                        opts.events = Integer.parseInt(args[++i]);
+                        break;
+                    case "--events-file":
+                        opts.eventsFile = Paths.get(args[++i]);
+                        break;
+                    case "--mix":
+                        opts.mix = Arrays.stream(args[++i].split(",")).mapToInt(Integer::parseInt).toArray();
+                        break;
+                    case "--max-findings":
+                        opts.maxFindings = Integer.parseInt(args[++i]);
+                        break;
+                    case "--seed":
+                        opts.seed = Long.parseLong(args[++i]);
+                        break;
+                    case "--strategy":
+                        opts.strategies = Arrays.asList(args[++i].split(","));
+                        break;
+                    case "--shared-webhook":
+                        opts.sharedWebhook = true;
+                        break;
+                    case "--settle":
+                        opts.settleSeconds = Long.parseLong(args[++i]);
+                        break;
+                    case "--work":
+                        opts.workDir = Paths.get(args[++i]);
+                        break;
+                    case "--latency":
+                        opts.latencyMillis = Long.parseLong(args[++i]);
+                        break;
+                    case "--error-rate":
+                        opts.errorRate = Double.parseDouble(args[++i]);
+                        break;
+                    case "--throttle-rate":
+                        opts.throttleRate = Double.parseDouble(args[++i]);
+                        break;
+                    case "--limit-per-second":
+                        opts.limitPerSecond = Integer.parseInt(args[++i]);
+                        break;
+                    case "--retry-after":
+                        opts.retryAfterSeconds = Integer.parseInt(args[++i]);
+                        break;
+                    default:
+                        System.err.println("Unknown option: " + args[i]);
+                        return null;
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            System.err.println("Bad option value: " + e.getMessage());
+            return null;
+        }
+        if (opts.rate <= 0 || opts.concurrency < 1 || opts.events < 1 || opts.mix.length != 3 || Arrays.stream(opts.mix).sum() <= 0
+                || opts.maxFindings < 1) {
+            return null;
+        }
+        return opts;
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                          Stub webhook                                                          *//
+    //**********************************************************************************************************************************//
+
+    /**
+     * Local stand-in for the Slack workflow webhooks. Every POST waits the configured latency
+     * (±50%), then answers 429 (per-webhook limit exceeded, or at random), 500 (at random) or 200.
+     * A 200 records when each marker of the current run first arrived.
+     */
+    static class StubWebhook implements AutoCloseable {
+        private final HttpServer server;
+        private final ExecutorService threads = Executors.newFixedThreadPool(64);
+        private final Options opts;
+        // Per path: {current second, posts in it}
+        private final Map<String, long[]> windows = new HashMap<>();
+
+        private volatile int run;
+        final Map<Integer, Long> delivered = new ConcurrentHashMap<>();
+        final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        final LongAdder posts = new LongAdder();
+        final LongAdder duplicates = new LongAdder();
+
+        private StubWebhook(HttpServer server, Options opts) {
+            this.server = server;
+            this.opts = opts;
+        }
+
+        static StubWebhook start(Options opts) throws IOException {
+            HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 256);
+            StubWebhook stub = new StubWebhook(server, opts);
+            server.createContext("/", stub::serve);
+            server.setExecutor(stub.threads);
+            server.start();
+            return stub;
+        }
+
+        int port() {
+            return server.getAddress().getPort();
+        }
+
+        void reset(int run) {
+            this.run = run;
+            delivered.clear();
+            statuses.clear();
+            posts.reset();
+            duplicates.reset();
+        }
+
+        private void serve(HttpExchange exchange) throws IOException {
+            String body;
+            try (InputStream in = exchange.getRequestBody()) {
+                body = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
+            try {
+                if (opts.latencyMillis > 0) {
+                    Thread.sleep(opts.latencyMillis / 2 + ThreadLocalRandom.current().nextLong(opts.latencyMillis + 1));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+
+            int status;
+            double roll = ThreadLocalRandom.current().nextDouble();
+            if (overLimit(exchange.getRequestURI().getPath()) || roll < opts.throttleRate) {
+                status = 429;
+                exchange.getResponseHeaders().add("Retry-After", Integer.toString(opts.retryAfterSeconds));
+            } else if (roll < opts.throttleRate + opts.errorRate) {
+                status = 500;
+            } else {
+                status = 200;
+                long now = System.nanoTime();
+                Matcher m = MARKER.matcher(body);
+                while (m.find()) {
+                    if (Integer.parseInt(m.group(1)) != run) continue;
+                    if (delivered.putIfAbsent(Integer.parseInt(m.group(2)), now) != null) duplicates.increment();
+                }
+            }
+            posts.increment();
+            statuses.computeIfAbsent(status, k -> new LongAdder()).increment();
+
+            byte[] reply = (status == 200 ? "ok" : status == 429 ? "rate_limited" : "internal_error").getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, reply.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(reply);
+            }
+        }
+
+        // Fixed one-second windows per webhook
+        private boolean overLimit(String path) {
+            if (opts.limitPerSecond <= 0) return false;
+            long second = System.currentTimeMillis() / 1000;
+            synchronized (windows) {
+                long[] w = windows.computeIfAbsent(path, k -> new long[2]);
+                if (w[0] != second) {
+                    w[0] = second;
+                    w[1] = 0;
+                }
+                return ++w[1] > opts.limitPerSecond;
+            }
+        }
+
+        @Override
+        public void close() {
+            server.stop(0);
+            threads.shutdownNow();
+        }
+    }
+}
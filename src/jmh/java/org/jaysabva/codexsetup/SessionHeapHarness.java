@@ -0,0 +1,124 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Retained heap of the indexer's resident model over a generated session tree: the manifest as
+ * it used to be held (a path → {size, mtime, SessionInfo} map, cwd and branch strings shared the
+ * way the old loader canonicalised them) against the columnar {@link SessionManifest}, and the
+ * {@link SessionStore} the daemon publishes on top of it. Each model is loaded from the same
+ * saved manifest and measured as the heap still in use after a settled full GC.
+ *
+ * Run with {@code ./gradlew sessionHeap -Pheap.args='--files 20000'}.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+public class SessionHeapHarness {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private static final MemoryMXBean MEMORY = ManagementFactory.getMemoryMXBean();
+
+    /** The manifest's on-disk shape, read the way it was held in memory before the columns. */
+    public static class ObjectManifest {
+        public int version;
+        public long headBytes;
+        public Map<String, SessionManifest.Entry> entries = new HashMap<>();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int files = 20_000;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--files") && i + 1 < args.length) {
+                files = Integer.parseInt(args[++i]);
+            } else {
+                System.err.println("Usage: SessionHeapHarness [--files <n>]");
+                System.exit(2);
+            }
+        }
+
+        Path root = Files.createTempDirectory("codex-heap-sessions");
+        Path manifestFile = root.resolveSibling(root.getFileName() + "-manifest.json");
+        try {
+            SyntheticSessionCorpus.Spec spec = new SyntheticSessionCorpus.Spec();
+            spec.files = files;
+            // Only the heads matter here
+            spec.linesPerFile = 2;
+            spec.giantEvery = 0;
+            SyntheticSessionCorpus.writeSessions(root, spec);
+
+            CodexIndexGenerator.Options opts = new CodexIndexGenerator.Options();
+            opts.sessionsRoot = root;
+            SessionManifest scanned = new SessionManifest();
+            CodexIndexGenerator.scanSessions(root, new SessionManifest(), scanned, opts);
+            scanned.save(manifestFile);
+            int sessions = scanned.sessionPaths().size();
+            scanned = null;
+
+            long base = settledHeap();
+            ObjectManifest objects = loadObjects(manifestFile);
+            long objectBytes = settledHeap() - base;
+            report("SessionInfo per file", objectBytes, sessions);
+            objects.entries.clear();
+            objects = null;
+
+            base = settledHeap();
+            SessionManifest manifest = SessionManifest.load(manifestFile);
+            long columnBytes = settledHeap() - base;
+            report("columnar manifest", columnBytes, sessions);
+            SessionStore store = manifest.store();
+            long storeBytes = settledHeap() - base - columnBytes;
+            report("+ published store", storeBytes, sessions);
+
+            System.out.printf("%nmanifest: %.1f%% less retained heap (%d sessions of %d files)%n",
+                    100.0 * (objectBytes - columnBytes) / objectBytes, sessions, manifest.size());
+            // Keep both reachable until the last measurement
+            if (store.size() < 0) System.out.println(manifest);
+        } finally {
+            Files.deleteIfExists(manifestFile);
+            try (Stream<Path> s = Files.walk(root)) {
+                for (Path p : s.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) Files.delete(p);
+            }
+        }
+    }
+
+    // As SessionManifest.load did before the columns: databind the file, then share cwd and branch strings
+    private static ObjectManifest loadObjects(Path file) throws IOException {
+        ObjectManifest manifest = MAPPER.readValue(file.toFile(), ObjectManifest.class);
+        Map<String, String> canonical = new HashMap<>();
+        for (SessionManifest.Entry e : manifest.entries.values()) {
+            if (e.info == null) continue;
+            if (e.info.file != null) e.info.file = canonical.computeIfAbsent(e.info.file, k -> k);
+            if (e.info.branch != null) e.info.branch = canonical.computeIfAbsent(e.info.branch, k -> k);
+        }
+        return manifest;
+    }
+
+    private static long settledHeap() throws InterruptedException {
+        long used = Long.MAX_VALUE;
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+            used = Math.min(used, MEMORY.getHeapMemoryUsage().getUsed());
+        }
+        return used;
+    }
+
+    private static void report(String model, long bytes, int sessions) {
+        System.out.printf("%-22s %10.1f KiB %8.0f B/session%n", model, bytes / 1024.0, (double) bytes / Math.max(1, sessions));
+    }
+}
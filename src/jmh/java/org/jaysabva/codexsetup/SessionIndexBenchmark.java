@@ -0,0 +1,137 @@
+package org.jaysabva.codexsetup;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Indexer hot paths over a generated session tree: head parsing per file, a cold full index
+ * (nothing cached), a warm one (every file answered by the manifest), grouping into the session
+ * store and the message cleanup regexes. Run with {@code ./gradlew jmh}; the gc profiler reports allocation rate alongside.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SessionIndexBenchmark {
+
+    @Param({ "500" })
+    public int files;
+
+    @Param({ "4194304" })
+    public int giantOutputBytes;
+
+    @Param({ "1", "4" })
+    public int parallelism;
+
+    private Path root;
+    private List<Path> sessionFiles;
+    private List<String> rawMessages;
+    private SessionManifest primed;
+    private CodexIndexGenerator.Options opts;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = Files.createTempDirectory("codex-bench-sessions");
+        SyntheticSessionCorpus.Spec spec = new SyntheticSessionCorpus.Spec();
+        spec.files = files;
+        spec.giantOutputBytes = giantOutputBytes;
+        SyntheticSessionCorpus.writeSessions(root, spec);
+
+        try (Stream<Path> s = Files.walk(root)) {
+            sessionFiles = s.filter(p -> p.toString().endsWith(".jsonl")).sorted().collect(Collectors.toList());
+        }
+
+        opts = new CodexIndexGenerator.Options();
+        opts.sessionsRoot = root;
+        opts.parallelism = parallelism;
+
+        primed = new SessionManifest();
+        CodexIndexGenerator.scanSessions(root, new SessionManifest(), primed, opts);
+
+        // Untouched user messages, as they come out of the transcript before cleanup
+        rawMessages = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            rawMessages.add("<user_instructions>\n follow the   repo style\n</user_instructions>\n  Fix the <b>timezone</b>\n\n"
+                    + " aggregation   in module " + i + " and keep\tthe **bold** output ".repeat(1 + i % 6));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        try (Stream<Path> s = Files.walk(root)) {
+            for (Path p : s.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) Files.delete(p);
+        }
+    }
+
+    @Benchmark
+    public void parseHeads(Blackhole bh) {
+        for (Path f : sessionFiles) {
+            bh.consume(CodexIndexGenerator.parseSessionFile(f, SessionHeadReader.DEFAULT_HEAD_BYTES));
+        }
+    }
+
+    @Benchmark
+    public void analyticsFullPass(Blackhole bh) throws IOException {
+        for (Path f : sessionFiles) {
+            bh.consume(SessionAnalytics.compute(f));
+        }
+    }
+
+    @Benchmark
+    public Object fullIndexCold() {
+        SessionManifest current = new SessionManifest();
+        CodexIndexGenerator.scanSessions(root, new SessionManifest(), current, opts);
+        return CodexIndexGenerator.groupSessions(current);
+    }
+
+    @Benchmark
+    public Object fullIndexWarm() {
+        SessionManifest current = new SessionManifest();
+        CodexIndexGenerator.scanSessions(root, primed, current, opts);
+        return CodexIndexGenerator.groupSessions(current);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public Object groupAndMaterialize() {
+        return CodexIndexGenerator.groupSessions(primed).grouped();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void cleanAndShorten(Blackhole bh) {
+        for (String m : rawMessages) {
+            bh.consume(CodexIndexGenerator.shorten(CodexIndexGenerator.cleanMessage(m)));
+        }
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void preview(Blackhole bh) {
+        for (String m : rawMessages) {
+            bh.consume(TextPipeline.preview(m));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Notifier formatting path without the webhook call: building the findings message, the
+ * markdown to mrkdwn rewrite, JSON escaping, the unescape used for Jira summaries, and the
+ * streamed parse into the top-K with budgeted message splitting.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SlackNotifierBenchmark {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Param({ "5", "50", "2000" })
+    public int findings;
+
+    private String raw;
+    private JsonNode payload;
+    private List<SlackNotifier.Finding> sorted;
+    private String message;
+    private String escaped;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        raw = SyntheticSessionCorpus.findingsPayload(7, findings);
+        payload = MAPPER.readTree(raw);
+
+        // Same ordering ReviewFindings renders in: most severe (P0) first, then highest confidence
+        sorted = Arrays.stream(MAPPER.treeToValue(payload.path("findings"), SlackNotifier.Finding[].class))
+                .sorted(Comparator.comparingInt((SlackNotifier.Finding f) -> f.priority)
+                        .thenComparing(f -> -f.confidence_score))
+                .collect(Collectors.toList());
+
+        message = SlackNotifier.buildFindingsSlackMessage(payload, sorted);
+        escaped = SlackNotifier.escapeJson(SlackNotifier.toSlackMrkdwn(message));
+    }
+
+    @Benchmark
+    public String buildFindingsMessage() {
+        return SlackNotifier.buildFindingsSlackMessage(payload, sorted);
+    }
+
+    @Benchmark
+    public String toSlackMrkdwn() {
+        return SlackNotifier.toSlackMrkdwn(message);
+    }
+
+    @Benchmark
+    public String escapeJson() {
+        return SlackNotifier.escapeJson(message);
+    }
+
+    @Benchmark
+    public String jsonUnescape() {
+        return SlackNotifier.jsonUnescape(escaped);
+    }
+
+    @Benchmark
+    public String findingsPayload() {
+        return "{\"text\":\"" + TextPipeline.mrkdwnJson(SlackNotifier.buildFindingsSlackMessage(payload, sorted)) + "\"}";
+    }
+
+    @Benchmark
+    public List<String> streamedFindingsMessages() {
+        SlackNotifier.AssistantJson review = SlackNotifier.tryParseJson(raw);
+        return SlackNotifier.buildFindingsSlackMessages(review.fields, review.findings, SlackOutbox.MAX_PAYLOAD_BYTES);
+    }
+}
@@ -0,0 +1,218 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+/**
+ * Deterministic generator for benchmark inputs: codex session trees laid out like
+ * ~/.codex/sessions (YYYY/MM/DD/rollout-*.jsonl) and the assistant messages of each notifier route
+ * (review findings, Gitlab-MR, Jira summaries).
+ * The same {@link Spec} always produces byte-identical output.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+public class SyntheticSessionCorpus {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final DateTimeFormatter DAY = DateTimeFormatter.ofPattern("yyyy/MM/dd");
+
+    private static final String[] CWDS = {
+            "/Users/dev/work/billing-service", "/Users/dev/work/analytics", "/Users/dev/work/web-app",
+            "/Users/dev/oss/codex-setup", "/Users/dev/scratch"
+    };
+    private static final String[] BRANCHES = { "main", "develop", "feature/tz-aggregation", "fix/JIRA-1234", null };
+    private static final String[] WORDS = {
+            "fix", "the", "timezone", "aggregation", "query", "service", "endpoint", "cache", "retry", "slack",
+            "webhook", "index", "session", "parser", "review", "**bold**", "`code`", "<tag>", "null", "pointer"
+    };
+
+    public static class Spec {
+        public long seed = 42;
+        public int files = 500;
+        // Response items per session after the head
+        public int linesPerFile = 40;
+        // Every n-th session carries one tool output of giantOutputBytes (0 disables)
+        public int giantEvery = 10;
+        public int giantOutputBytes = 4 << 20;
+        // Every n-th session has no session_meta line (0 disables)
+        public int missingMetaEvery = 25;
+        public Instant start = Instant.parse("2025-06-01T00:00:00Z");
+        public int days = 120;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("Usage: SyntheticSessionCorpus <dir> [files] [linesPerFile] [giantOutputBytes]");
+            return;
+        }
+        Spec spec = new Spec();
+        if (args.length > 1) spec.files = Integer.parseInt(args[1]);
+        if (args.length > 2) spec.linesPerFile = Integer.parseInt(args[2]);
+        if (args.length > 3) spec.giantOutputBytes = Integer.parseInt(args[3]);
+        long bytes = writeSessions(Paths.get(args[0]), spec);
+        System.out.println("Wrote " + spec.files + " sessions (" + bytes + " bytes) to " + args[0]);
+    }
+
+    /** Write {@code spec.files} sessions below {@code root}; returns the number of bytes written. */
+    public static long writeSessions(Path root, Spec spec) throws IOException {
+        Random rnd = new Random(spec.seed);
+        long total = 0;
+        for (int i = 0; i < spec.files; i++) {
+            Instant ts = spec.start.plusSeconds((long) rnd.nextInt(spec.days) * 86_400 + rnd.nextInt(86_400))
+                    .plusMillis(rnd.nextInt(1000));
+            ZonedDateTime utc = ts.atZone(ZoneOffset.UTC);
+            String sessionId = String.format("0199%04x-%04x-7000-8000-%012x", i, rnd.nextInt(0x10000), rnd.nextLong() & 0xffffffffffffL);
+            Path file = root.resolve(DAY.format(utc))
+                    .resolve("rollout-" + utc.toLocalDateTime().toString().replace(':', '-') + "-" + sessionId + ".jsonl");
+            Files.createDirectories(file.getParent());
+
+            try (BufferedWriter w = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                String cwd = CWDS[rnd.nextInt(CWDS.length)];
+                String branch = BRANCHES[rnd.nextInt(BRANCHES.length)];
+                boolean giant = spec.giantEvery > 0 && spec.giantOutputBytes > 0 && i % spec.giantEvery == 0;
+
+                if (spec.missingMetaEvery == 0 || i % spec.missingMetaEvery != 0) {
+                    ObjectNode meta = MAPPER.createObjectNode()
+                            .put("id", sessionId).put("timestamp", ts.toString()).put("cwd", cwd)
+                            .put("originator", "codex_cli_rs").put("cli_version", "0.46.0")
+                            .put("instructions", sentence(rnd, 300));
+                    if (branch != null) {
+                        meta.putObject("git").put("commit_hash", Long.toHexString(rnd.nextLong())).put("branch", branch);
+                    }
+                    total += line(w, ts, "session_meta", meta);
+                }
+                total += line(w, ts, "response_item", message("user", "input_text",
+                        "<environment_context>\n  <cwd>" + cwd + "</cwd>\n  <sandbox_mode>workspace-write</sandbox_mode>\n</environment_context>"));
+                total += line(w, ts, "response_item", message("user", "input_text",
+                        "<user_instructions>\n" + sentence(rnd, 12) + "\n</user_instructions>\n   " + sentence(rnd, 5 + rnd.nextInt(60))));
+
+                for (int l = 0; l < spec.linesPerFile; l++) {
+                    ObjectNode payload;
+                    switch (l % 4) {
+                        case 0:
+                            payload = MAPPER.createObjectNode().put("type", "function_call").put("name", "shell")
+                                    .put("arguments", "{\"command\":[\"bash\",\"-lc\",\"rg " + WORDS[rnd.nextInt(WORDS.length)] + "\"]}")
+                                    .put("call_id", "call_" + l);
+                            break;
+                        case 1:
+                            int size = giant && l == 1 ? spec.giantOutputBytes : 200 + rnd.nextInt(4000);
+                            payload = MAPPER.createObjectNode().put("type", "function_call_output")
+                                    .put("call_id", "call_" + (l - 1)).put("output", filler(rnd, size));
+                            break;
+                        case 2:
+                            payload = message("assistant", "output_text", sentence(rnd, 10 + rnd.nextInt(80)));
+                            break;
+                        default:
+                            payload = MAPPER.createObjectNode().put("type", "reasoning").put("summary", sentence(rnd, 20));
+                    }
+                    total += line(w, ts.plusSeconds(l), "response_item", payload);
+                }
+            }
+        }
+        return total;
+    }
+
+    /** A review-findings assistant message as emitted by the codex review prompt. */
+    public static String findingsPayload(long seed, int findings) {
+        Random rnd = new Random(seed);
+        ObjectNode root = MAPPER.createObjectNode();
+        ArrayNode list = root.putArray("findings");
+        for (int i = 0; i < findings; i++) {
+            ObjectNode f = list.addObject();
+            int priority = rnd.nextInt(4);
+            f.put("title", (rnd.nextBoolean() ? "[P" + priority + "] " : "") + sentence(rnd, 4 + rnd.nextInt(8)));
+            f.put("body", sentence(rnd, 20 + rnd.nextInt(80)) + "\n- " + sentence(rnd, 8) + "\n- see [docs](https://example.com/docs/" + i + ")");
+            f.put("confidence_score", Math.round(rnd.nextDouble() * 100) / 100.0);
+            f.put("priority", priority);
+            ObjectNode loc = f.putObject("code_location");
+            loc.put("absolute_file_path", CWDS[rnd.nextInt(CWDS.length)] + "/src/main/java/Module" + rnd.nextInt(50) + ".java");
+            int start = 1 + rnd.nextInt(500);
+            loc.putObject("line_range").put("start", start).put("end", start + rnd.nextInt(30));
+        }
+        root.put("overall_correctness", rnd.nextBoolean() ? "patch is correct" : "patch is incorrect");
+        root.put("overall_explanation", sentence(rnd, 40));
+        root.put("overall_confidence_score", Math.round(rnd.nextDouble() * 100) / 100.0);
+        return root.toString();
+    }
+
+    /** A {@code Gitlab-MR} assistant message, as the MR prompt emits it. */
+    public static String gitlabMrPayload(long seed) {
+        Random rnd = new Random(seed);
+        int ticket = 1000 + rnd.nextInt(9000);
+        return MAPPER.createObjectNode()
+                .put("type", "Gitlab-MR")
+                .put("ticket", "https://jira.example.com/browse/PROJ-" + ticket)
+                .put("pr", "https://gitlab.example.com/team/service/-/merge_requests/" + (1 + rnd.nextInt(5000)))
+                .put("source", BRANCHES[rnd.nextInt(BRANCHES.length - 1)] + "-" + ticket)
+                .put("target", rnd.nextBoolean() ? "develop" : "main")
+                .toString();
+    }
+
+    /** A {@code [JIRA-EXPLAIN-…]} summary, as the Jira prompt emits it: header line, then markdown. */
+    public static String jiraExplainPayload(long seed, int paragraphs) {
+        Random rnd = new Random(seed);
+        StringBuilder sb = new StringBuilder("[JIRA-EXPLAIN-PROJ-").append(1000 + rnd.nextInt(9000)).append("]\n");
+        sb.append("## Summary\n").append(sentence(rnd, 30));
+        for (int i = 0; i < paragraphs; i++) {
+            sb.append("\n\n**").append(WORDS[rnd.nextInt(WORDS.length)]).append("**\n- ").append(sentence(rnd, 15 + rnd.nextInt(40)));
+        }
+        return sb.toString();
+    }
+
+    /** The notify hook argument wrapping {@code assistantMessage}. */
+    public static String notifyEvent(String assistantMessage) {
+        return MAPPER.createObjectNode()
+                .put("type", "agent-turn-complete")
+                .put("turn-id", "bench")
+                .put("last-assistant-message", assistantMessage)
+                .toString();
+    }
+
+    private static ObjectNode message(String role, String contentType, String text) {
+        ObjectNode payload = MAPPER.createObjectNode().put("type", "message").put("role", role);
+        payload.putArray("content").addObject().put("type", contentType).put("text", text);
+        return payload;
+    }
+
+    private static int line(BufferedWriter w, Instant ts, String type, ObjectNode payload) throws IOException {
+        ObjectNode node = MAPPER.createObjectNode().put("timestamp", ts.toString()).put("type", type);
+        node.set("payload", payload);
+        String s = MAPPER.writeValueAsString(node);
+        w.write(s);
+        w.write('\n');
+        return s.length() + 1;
+    }
+
+    private static String sentence(Random rnd, int words) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) sb.append(rnd.nextInt(12) == 0 ? "\n" : " ");
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static String filler(Random rnd, int bytes) {
+        StringBuilder sb = new StringBuilder(bytes);
+        while (sb.length() < bytes) {
+            sb.append(WORDS[rnd.nextInt(WORDS.length)]).append(rnd.nextInt(8) == 0 ? '\n' : ' ');
+        }
+        sb.setLength(bytes);
+        return sb.toString();
+    }
+}
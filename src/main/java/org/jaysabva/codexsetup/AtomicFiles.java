@@ -0,0 +1,78 @@
+package org.jaysabva.codexsetup;
+
+import java.io.BufferedOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Whole-file replacement for files that are read while they get rewritten (the JSON index under
+ * jq, a memory-mapped binary index, the manifest of a concurrent run). Content goes to a temp file
+ * next to the target, which is then renamed over it: a reader sees the old file or the new one,
+ * never a prefix. The temp file is forced to disk before the rename, so after a crash the target
+ * is likewise the old file or the complete new one, not an empty or torn file. Temp names carry
+ * the pid and a sequence, so concurrent writers never share one, and they are created with the
+ * default permissions, like the file they replace.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+final class AtomicFiles {
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private AtomicFiles() {
+    }
+
+    interface Body {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    // Bodies may close their stream (Jackson's writeValue does); the channel must stay open for force()
+    private static final class Unclosable extends FilterOutputStream {
+
+        Unclosable(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+    static void write(Path file, byte[] bytes) throws IOException {
+        write(file, out -> out.write(bytes));
+    }
+
+    static void write(Path file, Body body) throws IOException {
+        Path target = file.toAbsolutePath();
+        Files.createDirectories(target.getParent());
+        Path tmp = target.resolveSibling(target.getFileName() + "." + ProcessHandle.current().pid()
+                + "-" + SEQUENCE.incrementAndGet() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)) {
+                OutputStream out = new BufferedOutputStream(new Unclosable(Channels.newOutputStream(channel)), 1 << 16);
+                body.writeTo(out);
+                out.flush();
+                channel.force(true);
+            }
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
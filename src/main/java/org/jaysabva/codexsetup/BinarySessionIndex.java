@@ -0,0 +1,241 @@
+package org.jaysabva.codexsetup;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compact binary form of the session index, readable through a memory mapping.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * header   : magic, version, stringCount, cwdCount, recordCount
+ * strings  : int[stringCount + 1] offsets into the blob, then the UTF-8 blob
+ * cwds     : cwdCount x (cwd string, first record, record count), sorted by cwd
+ * records  : recordCount x (branch, epoch millis, time, sessionId, message, jsonl path)
+ * </pre>
+ * Records of one cwd are contiguous and ordered newest first; string references are table
+ * indexes with -1 for null. Looking up one cwd decodes only that cwd's strings.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+class BinarySessionIndex {
+
+    private static final int MAGIC = 0x43585349; // "CXSI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 5 * Integer.BYTES;
+    private static final int CWD_ENTRY_SIZE = 3 * Integer.BYTES;
+    private static final int RECORD_SIZE = 5 * Integer.BYTES + Long.BYTES;
+
+    private final ByteBuffer buf;
+    private final int cwdCount;
+    private final int recordCount;
+    private final int offsetsPos;
+    private final int blobPos;
+    private final int cwdsPos;
+    private final int recordsPos;
+    private final String[] strings;
+
+    private BinarySessionIndex(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException("Not a session index (or unsupported version)");
+        }
+        int stringCount = buf.getInt(8);
+        this.cwdCount = buf.getInt(12);
+        this.recordCount = buf.getInt(16);
+        this.offsetsPos = HEADER_SIZE;
+        this.blobPos = offsetsPos + (stringCount + 1) * Integer.BYTES;
+        this.cwdsPos = blobPos + buf.getInt(offsetsPos + stringCount * Integer.BYTES);
+        this.recordsPos = cwdsPos + cwdCount * CWD_ENTRY_SIZE;
+        this.strings = new String[stringCount];
+        if (recordsPos + (long) recordCount * RECORD_SIZE > buf.capacity()) {
+            throw new IOException("Truncated session index");
+        }
+    }
+
+    static BinarySessionIndex open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            return new BinarySessionIndex(mapped);
+        }
+    }
+
+    int recordCount() {
+        return recordCount;
+    }
+
+    List<String> cwds() {
+        List<String> out = new ArrayList<>(cwdCount);
+        for (int i = 0; i < cwdCount; i++) out.add(string(buf.getInt(cwdsPos + i * CWD_ENTRY_SIZE)));
+        return out;
+    }
+
+    /** Sessions recorded for {@code cwd}, newest first; empty when the cwd is unknown. */
+    List<SessionEntry> sessionsFor(String cwd) {
+        int lo = 0, hi = cwdCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = cwdsPos + mid * CWD_ENTRY_SIZE;
+            int cmp = string(buf.getInt(entry)).compareTo(cwd);
+            if (cmp < 0) lo = mid + 1;
+            else if (cmp > 0) hi = mid - 1;
+            else return records(cwd, buf.getInt(entry + 4), buf.getInt(entry + 8));
+        }
+        return new ArrayList<>();
+    }
+
+    private List<SessionEntry> records(String cwd, int first, int count) {
+        List<SessionEntry> out = new ArrayList<>(count);
+        for (int r = first; r < first + count; r++) {
+            int pos = recordsPos + r * RECORD_SIZE;
+            SessionEntry e = new SessionEntry();
+            e.epochMillis = buf.getLong(pos + 4);
+            e.info = new CodexIndexGenerator.SessionInfo();
+            e.branch = string(buf.getInt(pos));
+            e.info.branch = e.branch;
+            e.info.time = string(buf.getInt(pos + 12));
+            e.info.sessionId = string(buf.getInt(pos + 16));
+            e.info.firstUserMessage = string(buf.getInt(pos + 20));
+            e.info.jsonlFilePath = string(buf.getInt(pos + 24));
+            e.info.file = cwd;
+            out.add(e);
+        }
+        return out;
+    }
+
+    private String string(int id) {
+        if (id < 0) return null;
+        String s = strings[id];
+        if (s == null) {
+            int from = buf.getInt(offsetsPos + id * Integer.BYTES);
+            int to = buf.getInt(offsetsPos + (id + 1) * Integer.BYTES);
+            byte[] bytes = new byte[to - from];
+            buf.get(blobPos + from, bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+            strings[id] = s;
+        }
+        return s;
+    }
+
+    /** One decoded record; the epoch millis are pre-parsed at write time for sorting and filtering. */
+    static class SessionEntry {
+        String branch;
+        long epochMillis;
+        CodexIndexGenerator.SessionInfo info;
+
+        SessionEntry() {
+        }
+
+        SessionEntry(String branch, long epochMillis, CodexIndexGenerator.SessionInfo info) {
+            this.branch = branch;
+            this.epochMillis = epochMillis;
+            this.info = info;
+        }
+    }
+
+    /**
+     * Write {@code grouped} (cwd → branch → sessions) to {@code file}. Strings are interned into one
+     * table; sections are streamed to disk in order once the table is known.
+     */
+    static void write(Path file, Map<String, Map<String, List<CodexIndexGenerator.SessionInfo>>> grouped)
+            throws IOException {
+        Map<String, Integer> ids = new LinkedHashMap<>();
+        List<byte[]> encoded = new ArrayList<>();
+        List<int[]> cwdEntries = new ArrayList<>();
+        List<List<SessionEntry>> perCwd = new ArrayList<>();
+        int recordCount = 0;
+
+        for (Map.Entry<String, Map<String, List<CodexIndexGenerator.SessionInfo>>> byCwd : grouped.entrySet()) {
+            List<SessionEntry> rows = new ArrayList<>();
+            for (Map.Entry<String, List<CodexIndexGenerator.SessionInfo>> byBranch : byCwd.getValue().entrySet()) {
+                for (CodexIndexGenerator.SessionInfo s : byBranch.getValue()) {
+                    rows.add(new SessionEntry(byBranch.getKey(), epochMillis(s.time), s));
+                }
+            }
+            // Newest first across branches; List.sort is stable so ties keep branch order
+            rows.sort(Comparator.comparingLong((SessionEntry row) -> row.epochMillis).reversed());
+
+            cwdEntries.add(new int[]{intern(byCwd.getKey(), ids, encoded), recordCount, rows.size()});
+            for (SessionEntry row : rows) {
+                CodexIndexGenerator.SessionInfo s = row.info;
+                intern(row.branch, ids, encoded);
+                intern(s.time, ids, encoded);
+                intern(s.sessionId, ids, encoded);
+                intern(s.firstUserMessage, ids, encoded);
+                intern(s.jsonlFilePath, ids, encoded);
+            }
+            perCwd.add(rows);
+            recordCount += rows.size();
+        }
+
+        int records = recordCount;
+        // Readers map the file; a new inode leaves their mapping intact
+        AtomicFiles.write(file, stream -> {
+            DataOutputStream out = new DataOutputStream(stream);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(encoded.size());
+            out.writeInt(cwdEntries.size());
+            out.writeInt(records);
+
+            int offset = 0;
+            for (byte[] b : encoded) {
+                out.writeInt(offset);
+                offset += b.length;
+            }
+            out.writeInt(offset);
+            for (byte[] b : encoded) out.write(b);
+
+            for (int[] e : cwdEntries) {
+                out.writeInt(e[0]);
+                out.writeInt(e[1]);
+                out.writeInt(e[2]);
+            }
+
+            for (List<SessionEntry> rows : perCwd) {
+                for (SessionEntry row : rows) {
+                    CodexIndexGenerator.SessionInfo s = row.info;
+                    out.writeInt(idOf(row.branch, ids));
+                    out.writeLong(row.epochMillis);
+                    out.writeInt(idOf(s.time, ids));
+                    out.writeInt(idOf(s.sessionId, ids));
+                    out.writeInt(idOf(s.firstUserMessage, ids));
+                    out.writeInt(idOf(s.jsonlFilePath, ids));
+                }
+            }
+        });
+    }
+
+    private static int intern(String s, Map<String, Integer> ids, List<byte[]> encoded) {
+        if (s == null) return -1;
+        Integer id = ids.get(s);
+        if (id == null) {
+            id = encoded.size();
+            ids.put(s, id);
+            encoded.add(s.getBytes(StandardCharsets.UTF_8));
+        }
+        return id;
+    }
+
+    private static int idOf(String s, Map<String, Integer> ids) {
+        return s == null ? -1 : ids.get(s);
+    }
+
+    static long epochMillis(String time) {
+        try { return Instant.parse(time).toEpochMilli(); } catch (Exception e) { return 0L; }
+    }
+}
@@ -1,19 +1,24 @@
 package org.jaysabva.codexsetup;
 
-import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.SerializationFeature;
-
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.DateTimeException;
+import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.*;
-import java.util.regex.Pattern;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
  * Generate Codex Sessions List Per Branch
@@ -24,12 +29,46 @@ import java.util.stream.Stream;
  */
 public class CodexIndexGenerator {
 
-    private static final ObjectMapper MAPPER = new ObjectMapper()
-            .enable(SerializationFeature.INDENT_OUTPUT);
     private static final Path DEFAULT_SESSIONS_DIR =
             Paths.get(System.getProperty("user.home"), ".codex", "sessions");
     private static final Path OUTPUT_FILE =
             Paths.get(System.getProperty("user.home"), ".codex", "codex_sessions_index.json");
+    static final Path DEFAULT_SOCKET =
+            Paths.get(System.getProperty("user.home"), ".codex", "codex_sessions.sock");
+    private static final String MANIFEST_FILE_NAME = "codex_sessions_manifest.json";
+    private static final byte[] SESSION_META_MARKER = "session_meta".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INPUT_TEXT_MARKER = "input_text".getBytes(StandardCharsets.UTF_8);
+
+    // Reported with --stats / --metrics-file
+    private static final Metrics.Counter FILES_SCANNED =
+            Metrics.counter("codex_index_files_scanned_total", "Session files found by the walk");
+    private static final Metrics.Counter FILES_UNCHANGED = Metrics.counter("codex_index_files_skipped_total",
+            "Session files not parsed", "reason", "unchanged");
+    private static final Metrics.Counter PARTITIONS_PRUNED = Metrics.counter("codex_index_partitions_pruned_total",
+            "Date partitions outside the --since/--until window that were not walked");
+    private static final Metrics.Counter FILES_FAILED =
+            Metrics.counter("codex_index_files_failed_total", "Session files that could not be read");
+    private static final Metrics.Counter LINES_READ =
+            Metrics.counter("codex_index_lines_read_total", "Head lines read from parsed session files");
+    private static final Metrics.Counter LINES_PARSED =
+            Metrics.counter("codex_index_lines_parsed_total", "Head lines that went through the JSON parser");
+    private static final Metrics.Histogram LINES_PER_FILE = Metrics.histogram("codex_index_lines_per_file",
+            "Head lines read per parsed session file", new double[]{ 1, 2, 5, 10, 25, 50, 100, 250, 1000 });
+
+    static Metrics.Timer phase(String name) {
+        return Metrics.timer("codex_index_phase_seconds", "Time spent per indexer phase", "phase", name);
+    }
+
+    private static final Metrics.Timer PHASE_WALK = phase("walk");
+    private static final Metrics.Timer PHASE_PARSE = phase("parse");
+    private static final Metrics.Timer PHASE_GROUP = phase("group");
+    private static final Metrics.Timer PHASE_WRITE_JSON = phase("write_json");
+    private static final Metrics.Timer PHASE_WRITE_BINARY = phase("write_binary");
+    private static final Metrics.Timer PHASE_WRITE_SHARDS = phase("write_shards");
+    private static final Metrics.Timer PHASE_MANIFEST_LOAD = phase("manifest_load");
+    private static final Metrics.Timer PHASE_MANIFEST_SAVE = phase("manifest_save");
+    private static final Metrics.Timer PHASE_SEARCH_INDEX = phase("search_index");
+    private static final Metrics.Timer PHASE_COMPACT = phase("compact");
 
     static class SessionInfo {
         public String firstUserMessage;
@@ -38,132 +77,522 @@ public class CodexIndexGenerator {
         public String sessionId;
         public String file;
         public String jsonlFilePath;
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof SessionInfo)) return false;
+            SessionInfo that = (SessionInfo) o;
+            return Objects.equals(firstUserMessage, that.firstUserMessage)
+                    && Objects.equals(branch, that.branch)
+                    && Objects.equals(time, that.time)
+                    && Objects.equals(sessionId, that.sessionId)
+                    && Objects.equals(file, that.file)
+                    && Objects.equals(jsonlFilePath, that.jsonlFilePath);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(firstUserMessage, branch, time, sessionId, file, jsonlFilePath);
+        }
+    }
+
+    static class Options {
+        static final String USAGE = "Usage: java -jar codex-index-generator.jar [<sessions-dir> [<output>]] [--binary]"
+                + " [--parallelism <n>] [--head-bytes <n>] [--since <date>] [--until <date>] [--days <n>]"
+                + " [--compact-older-than <days>] [--analytics] [--stats] [--metrics-file <path>]"
+                + " | --query --cwd <dir> ... | --search <terms> [--limit <n>] | --search-index";
+
+        Path sessionsRoot = DEFAULT_SESSIONS_DIR;
+        Path output = OUTPUT_FILE;
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        long headBytes = SessionHeadReader.DEFAULT_HEAD_BYTES;
+        boolean binary;
+        Path socket = DEFAULT_SOCKET;
+        boolean query;
+        String queryCwd;
+        String queryBranch = "";
+        int queryPage;
+        int queryPageSize = 10;
+        String querySort = "time";
+        boolean searchIndex;
+        String searchQuery;
+        int searchLimit = 20;
+        boolean stats;
+        Path metricsFile;
+        // --analytics: refresh per-session aggregates in a detached process after indexing
+        boolean analytics;
+        boolean refreshAnalytics;
+        // --compact-older-than: gzip transcripts untouched for this long before indexing
+        Duration compactAge;
+        // Session time window, [since, until) in epoch millis. Indexing only walks the date partitions
+        // it overlaps (the rest comes from the manifest); queries only list sessions inside it
+        long sinceMillis = Long.MIN_VALUE;
+        long untilMillis = Long.MAX_VALUE;
+
+        boolean bounded() {
+            return sinceMillis != Long.MIN_VALUE || untilMillis != Long.MAX_VALUE;
+        }
+
+        SessionQuery.Request queryRequest() {
+            SessionQuery.Request r = new SessionQuery.Request();
+            r.cwd = queryCwd;
+            r.branch = queryBranch;
+            r.page = queryPage;
+            r.pageSize = queryPageSize;
+            r.sort = querySort;
+            r.sinceMillis = sinceMillis;
+            r.untilMillis = untilMillis;
+            return r;
+        }
+
+        static Options parse(String[] args) {
+            Options o = new Options();
+            List<String> positional = new ArrayList<>();
+            for (int i = 0; i < args.length; i++) {
+                String flag = args[i];
+                try {
+                    switch (flag) {
+                        case "--parallelism":
+                            o.parallelism = Math.max(1, Integer.parseInt(value(args, ++i)));
+                            break;
+                        case "--binary":
+                            o.binary = true;
+                            break;
+                        case "--output":
+                            o.output = Paths.get(value(args, ++i));
+                            break;
+                        case "--socket":
+                            o.socket = Paths.get(value(args, ++i));
+                            break;
+                        case "--query":
+                            o.query = true;
+                            break;
+                        case "--cwd":
+                            o.queryCwd = value(args, ++i);
+                            break;
+                        case "--branch":
+                            o.queryBranch = value(args, ++i);
+                            break;
+                        case "--page":
+                            o.queryPage = Integer.parseInt(value(args, ++i));
+                            break;
+                        case "--page-size":
+                            o.queryPageSize = Integer.parseInt(value(args, ++i));
+                            break;
+                        case "--sort":
+                            o.querySort = value(args, ++i);
+                            break;
+                        case "--analytics":
+                            o.analytics = true;
+                            break;
+                        case "--refresh-analytics":
+                            o.refreshAnalytics = true;
+                            break;
+                        case "--search-index":
+                            o.searchIndex = true;
+                            break;
+                        case "--search":
+                            o.searchQuery = value(args, ++i);
+                            break;
+                        case "--limit":
+                            o.searchLimit = Math.max(1, Integer.parseInt(value(args, ++i)));
+                            break;
+                        case "--since":
+                            o.sinceMillis = parseBound(value(args, ++i), false);
+                            break;
+                        case "--until":
+                            o.untilMillis = parseBound(value(args, ++i), true);
+                            break;
+                        case "--days":
+                            o.sinceMillis = Instant.now().minus(Duration.ofDays(Long.parseLong(value(args, ++i)))).toEpochMilli();
+                            break;
+                        case "--compact-older-than":
+                            o.compactAge = Duration.ofDays(Long.parseLong(value(args, ++i)));
+                            break;
+                        case "--stats":
+                            o.stats = true;
+                            break;
+                        case "--metrics-file":
+                            o.metricsFile = Paths.get(value(args, ++i));
+                            break;
+                        case "--head-bytes":
+                            o.headBytes = Math.max(1, Long.parseLong(value(args, ++i)));
+                            break;
+                        default:
+                            // A mistyped flag would otherwise become the sessions dir or the output
+                            if (flag.startsWith("--")) throw new IllegalArgumentException("unknown option");
+                            positional.add(args[i]);
+                    }
+                } catch (IllegalArgumentException | DateTimeException | ArithmeticException e) {
+                    // Bad numbers and paths throw IllegalArgumentException, bad dates DateTimeException,
+                    // day counts too large for an Instant ArithmeticException
+                    System.err.println("Bad " + flag + ": " + e.getMessage());
+                    System.err.println(USAGE);
+                    System.exit(2);
+                }
+            }
+            if (positional.size() > 0) o.sessionsRoot = Paths.get(positional.get(0));
+            if (positional.size() > 1) o.output = Paths.get(positional.get(1));
+            return o;
+        }
+
+        // The value of the flag before args[i]
+        private static String value(String[] args, int i) {
+            if (i >= args.length) throw new IllegalArgumentException("missing value");
+            return args[i];
+        }
+
+        // YYYY-MM-DD (a whole UTC day, so --until includes it) or an ISO-8601 instant
+        private static long parseBound(String value, boolean endOfDay) {
+            if (value.length() == 10) {
+                LocalDate day = LocalDate.parse(value);
+                return (endOfDay ? day.plusDays(1) : day).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+            }
+            return Instant.parse(value).toEpochMilli();
+        }
     }
 
     public static void main(String[] args) {
-        Path sessionsRoot = args.length > 0 ? Paths.get(args[0]) : DEFAULT_SESSIONS_DIR;
-        Path output = args.length > 1 ? Paths.get(args[1]) : OUTPUT_FILE;
+        Options opts = Options.parse(args);
+        try {
+            if (opts.query) {
+                SessionQuery.run(opts);
+            } else if (opts.searchQuery != null) {
+                TranscriptSearchIndex.run(opts);
+            } else if (opts.refreshAnalytics) {
+                refreshAnalytics(opts);
+            } else {
+                index(opts);
+            }
+        } finally {
+            Metrics.report(opts.stats, opts.metricsFile);
+        }
+    }
+
+    private static void index(Options opts) {
+        Path sessionsRoot = opts.sessionsRoot;
 
         if (!Files.isDirectory(sessionsRoot)) {
             System.err.println("Sessions directory not found: " + sessionsRoot);
             System.exit(1);
         }
 
-        List<SessionInfo> allSessions = new ArrayList<>();
-
-        try (Stream<Path> paths = Files.walk(sessionsRoot)) {
-            List<Path> files = paths.filter(p -> p.toString().endsWith(".jsonl")).collect(Collectors.toList());
-            for (Path f : files) {
-                SessionInfo info = parseSessionFile(f);
-                if (info != null) allSessions.add(info);
+        // Concurrent pickers share one rebuild; the files are replaced atomically either way
+        try {
+            if (!IndexRebuildLock.runOrJoin(opts, () -> rebuild(opts))) {
+                System.out.println("✅ Index rebuilt by a concurrent run, reusing: " + opts.output.toAbsolutePath());
             }
         } catch (IOException e) {
-            System.err.println("Error scanning sessions: " + e.getMessage());
+            System.err.println("Index lock unavailable (" + e.getMessage() + "); rebuilding without it");
+            rebuild(opts);
+        }
+    }
+
+    private static void rebuild(Options opts) {
+        Path sessionsRoot = opts.sessionsRoot;
+
+        if (opts.compactAge != null) {
+            long start = System.nanoTime();
+            SessionArchiver.Result r = SessionArchiver.compactOlderThan(sessionsRoot, opts.compactAge, opts.parallelism);
+            PHASE_COMPACT.since(start);
+            System.out.printf("✅ Compressed %d session(s) older than %d days: %.1f MB → %.1f MB%s%n",
+                    r.compressed, opts.compactAge.toDays(), r.bytesBefore / 1e6, r.bytesAfter / 1e6,
+                    r.failed > 0 ? " (" + r.failed + " failed)" : "");
         }
 
-        // Group: cwd → branch → all sessions (sorted desc by time)
-        Map<String, Map<String, List<SessionInfo>>> grouped = new TreeMap<>();
+        // Manifest lives next to the index; only new or changed files get re-parsed
+        Path manifestFile = manifestPath(opts);
+        long start = System.nanoTime();
+        SessionManifest previous = SessionManifest.load(manifestFile);
+        PHASE_MANIFEST_LOAD.since(start);
+        SessionManifest current = new SessionManifest();
 
-        for (SessionInfo s : allSessions) {
-            String cwd = s.file != null ? extractCwdFromPath(s.file) : "(no-cwd)";
-            String branch = (s.branch != null && !s.branch.isBlank()) ? s.branch : "(no-branch)";
+        scanSessions(sessionsRoot, previous, current, opts);
 
-            grouped
-                    .computeIfAbsent(cwd, k -> new HashMap<>())
-                    .computeIfAbsent(branch, k -> new ArrayList<>())
-                    .add(s);
+        // Entries for deleted files are dropped simply by not being carried over
+        start = System.nanoTime();
+        try {
+            current.save(manifestFile);
+        } catch (IOException e) {
+            System.err.println("Failed writing manifest: " + e.getMessage());
+        }
+        PHASE_MANIFEST_SAVE.since(start);
+
+        writeIndexes(groupSessions(current), opts, true);
+
+        if (opts.searchIndex) {
+            Path searchFile = TranscriptSearchIndex.indexPath(opts);
+            start = System.nanoTime();
+            try {
+                TranscriptSearchIndex.update(searchFile, current, opts);
+                System.out.println("✅ Search index written to: " + searchFile.toAbsolutePath());
+            } catch (IOException e) {
+                System.err.println("Failed writing search index: " + e.getMessage());
+            }
+            PHASE_SEARCH_INDEX.since(start);
         }
 
-        // Sort lists by time (newest first)
-        for (Map<String, List<SessionInfo>> byBranch : grouped.values()) {
-            for (List<SessionInfo> sessions : byBranch.values()) {
-                sessions.sort(Comparator.comparing(
-                        (SessionInfo si) -> parseInstant(si.time)
-                ).reversed());
+        // Full transcript reads take a while on a cold cache; the picker must not wait for them
+        if (opts.analytics) SessionAnalytics.spawnRefresh(opts);
+    }
+
+    private static void refreshAnalytics(Options opts) {
+        try {
+            if (!SessionAnalytics.refreshUnderLock(opts)) {
+                System.err.println("Analytics refresh already running");
+                return;
             }
+            System.out.println("✅ Session analytics written to: " + SessionAnalytics.cachePath(opts).toAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("Failed writing session analytics: " + e.getMessage());
         }
+    }
+
+    static Path manifestPath(Options opts) {
+        return opts.output.resolveSibling(MANIFEST_FILE_NAME);
+    }
 
-        // Write one JSON file
+    /** Write the JSON index, its per-cwd shards (and the binary one when enabled) for {@code store}. */
+    static void writeIndexes(SessionStore store, Options opts, boolean verbose) {
+        Path output = opts.output;
+        // Written straight from the store's columns
+        long start = System.nanoTime();
         try {
-            MAPPER.writeValue(output.toFile(), grouped);
-            System.out.println("✅ JSON index written to: " + output.toAbsolutePath());
+            AtomicFiles.write(output, out -> store.writeJson(out, true));
+            if (verbose) System.out.println("✅ JSON index written to: " + output.toAbsolutePath());
         } catch (IOException e) {
             System.err.println("Failed writing JSON: " + e.getMessage());
         }
+        PHASE_WRITE_JSON.since(start);
+
+        // Materialized once for the binary index and the shards
+        Map<String, Map<String, List<SessionInfo>>> grouped = store.grouped();
+
+        if (opts.binary) {
+            Path binaryOutput = binaryIndexPath(output);
+            start = System.nanoTime();
+            try {
+                BinarySessionIndex.write(binaryOutput, grouped);
+                if (verbose) System.out.println("✅ Binary index written to: " + binaryOutput.toAbsolutePath());
+            } catch (IOException e) {
+                System.err.println("Failed writing binary index: " + e.getMessage());
+            }
+            PHASE_WRITE_BINARY.since(start);
+        }
+
+        // After the JSON index: a directory file at least as new as it marks the shards current
+        Path shards = SessionShards.dirPath(output);
+        start = System.nanoTime();
+        try {
+            SessionShards.write(shards, grouped);
+            if (verbose) System.out.println("✅ Per-cwd shards written to: " + shards.toAbsolutePath());
+        } catch (IOException e) {
+            System.err.println("Failed writing shards: " + e.getMessage());
+        }
+        PHASE_WRITE_SHARDS.since(start);
     }
 
-    private static SessionInfo parseSessionFile(Path file) {
-        String firstUserMessage = null, branch = null, time = null, sessionId = null, cwd = null;
+    /** codex_sessions_index.json → codex_sessions_index.bin, next to the JSON index. */
+    static Path binaryIndexPath(Path jsonOutput) {
+        String name = jsonOutput.getFileName().toString();
+        String base = name.endsWith(".json") ? name.substring(0, name.length() - ".json".length()) : name;
+        return jsonOutput.resolveSibling(base + ".bin");
+    }
 
-        try (BufferedReader br = Files.newBufferedReader(file)) {
-            String line;
-            boolean gotMeta = false;
+    /**
+     * Walk the sessions tree, reusing manifest hits from {@code previous} and parsing the rest
+     * on a pool of {@code opts.parallelism} workers. Every session found is recorded in {@code current},
+     * which {@link #groupSessions} then turns into the index.
+     *
+     * A time window only limits the walk: partitions outside it are not visited and their sessions
+     * come from the manifest as they were, so the result is always the full history. A cold
+     * manifest has nothing to carry over, so the first run walks everything. So does a run with a
+     * different {@code --head-bytes} than the manifest was built with: every file is parsed again.
+     */
+    static void scanSessions(Path sessionsRoot, SessionManifest cached, SessionManifest current, Options opts) {
+        SessionManifest previous = cached.parsedWith(opts.headBytes);
+        current.headBytes = opts.headBytes;
+        Map<Path, BasicFileAttributes> toParse = new TreeMap<>();
+        // Pruned partitions relative to the root: "2025", "2025/06" or "2025/06/01"
+        Set<String> pruned = new HashSet<>();
+        boolean prune = opts.bounded() && !previous.isEmpty();
 
-            while ((line = br.readLine()) != null) {
-                JsonNode root;
-                try {
-                    root = MAPPER.readTree(line);
-                } catch (Exception ignore) { continue; }
-
-                String type = asText(root, "type");
-
-                if (!gotMeta && "session_meta".equals(type)) {
-                    gotMeta = true;
-                    JsonNode payload = root.path("payload");
-                    sessionId = asText(payload, "id");
-                    time = asText(payload, "timestamp");
-                    cwd = asText(payload, "cwd");
-                    JsonNode git = payload.path("git");
-                    if (!git.isMissingNode()) branch = asText(git, "branch");
-                    continue;
+        long start = System.nanoTime();
+        try {
+            Files.walkFileTree(sessionsRoot, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                    Path relative = sessionsRoot.relativize(dir);
+                    if (prune && !partitionOverlaps(relative, opts)) {
+                        PARTITIONS_PRUNED.inc();
+                        pruned.add(relative.toString());
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    return FileVisitResult.CONTINUE;
                 }
 
-                if (firstUserMessage == null
-                        && "response_item".equals(type)
-                        && "message".equals(asText(root.path("payload"), "type"))
-                        && "user".equals(asText(root.path("payload"), "role"))) {
-
-                    JsonNode content = root.path("payload").path("content");
-                    if (content.isArray()) {
-                        for (JsonNode c : content) {
-                            if ("input_text".equals(asText(c, "type"))) {
-                                String text = asText(c, "text");
-                                if (isUsefulMessage(text)) {
-                                    firstUserMessage = shorten(cleanMessage(text));
-                                    break;
-                                }
-                            }
-                        }
+                @Override
+                public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) {
+                    if (!isSessionFile(f, attrs)) return FileVisitResult.CONTINUE;
+                    FILES_SCANNED.inc();
+
+                    if (previous.isCurrent(f, attrs)) {
+                        FILES_UNCHANGED.inc();
+                        current.carry(previous, f.toString());
+                    } else {
+                        toParse.put(f, attrs);
                     }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path f, IOException e) {
+                    FILES_FAILED.inc();
+                    System.err.println("Skipping " + f + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
                 }
+            });
+        } catch (IOException e) {
+            System.err.println("Error scanning sessions: " + e.getMessage());
+        }
+        PHASE_WALK.since(start);
+
+        List<Path> files = new ArrayList<>(toParse.keySet());
+        start = System.nanoTime();
+        List<SessionInfo> parsed = parseAll(files, opts);
+        PHASE_PARSE.since(start);
+        // A file that could not be read gets no entry, so the next run tries it again
+        for (int i = 0; i < files.size(); i++) current.put(files.get(i), toParse.get(files.get(i)), parsed.get(i));
 
-                if (gotMeta && firstUserMessage != null) break;
+        // Pruned partitions were not walked, so their cached entries carry over, less any file since deleted
+        if (!pruned.isEmpty()) {
+            String root = sessionsRoot.toString() + File.separator;
+            for (String key : previous.paths()) {
+                if (!key.startsWith(root) || !inPrunedPartition(key, root.length(), pruned)) continue;
+                if (Files.exists(Paths.get(key))) current.carry(previous, key);
             }
+        }
+    }
+
+    // Whether the YYYY, YYYY/MM or YYYY/MM/DD prefix of a path below the root is a pruned partition
+    private static boolean inPrunedPartition(String path, int from, Set<String> pruned) {
+        int end = from;
+        for (int depth = 0; depth < 3; depth++) {
+            end = path.indexOf(File.separatorChar, end);
+            if (end < 0) return false;
+            if (pruned.contains(path.substring(from, end))) return true;
+            end++;
+        }
+        return false;
+    }
+
+    /**
+     * Whether a YYYY, YYYY/MM or YYYY/MM/DD directory (relative to the sessions root) can hold
+     * sessions inside the window. Directory dates follow the local clock, so each partition is
+     * widened by a day on both sides; anything that is not a date partition is always walked.
+     */
+    static boolean partitionOverlaps(Path relative, Options opts) {
+        int depth = relative.getNameCount();
+        if (relative.toString().isEmpty() || depth > 3) return true;
+        int[] parts = new int[depth];
+        for (int i = 0; i < depth; i++) {
+            String name = relative.getName(i).toString();
+            if (name.length() != (i == 0 ? 4 : 2) || !name.chars().allMatch(Character::isDigit)) return true;
+            parts[i] = Integer.parseInt(name);
+        }
+
+        LocalDate start, end;
+        try {
+            start = LocalDate.of(parts[0], depth > 1 ? parts[1] : 1, depth > 2 ? parts[2] : 1);
+        } catch (DateTimeException e) {
+            return true;
+        }
+        end = depth == 1 ? start.plusYears(1) : depth == 2 ? start.plusMonths(1) : start.plusDays(1);
+
+        long from = start.minusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        long to = end.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+        return to > opts.sinceMillis && from < opts.untilMillis;
+    }
+
+    /** A transcript, live ({@code .jsonl}) or archived by --compact-older-than ({@code .jsonl.gz}). */
+    static boolean isSessionFile(Path f, BasicFileAttributes attrs) {
+        String name = f.toString();
+        return attrs.isRegularFile() && (name.endsWith(".jsonl") || name.endsWith(".jsonl" + SessionHeadReader.COMPRESSED_SUFFIX));
+    }
+
+    /** Parse {@code files} in order; the result is index-aligned and holds null for failures. */
+    static List<SessionInfo> parseAll(List<Path> files, Options opts) {
+        if (opts.parallelism <= 1 || files.size() < 2) {
+            List<SessionInfo> out = new ArrayList<>(files.size());
+            for (Path f : files) out.add(parseSessionFile(f, opts.headBytes));
+            return out;
+        }
+
+        // A parallel stream submitted to a dedicated pool runs on that pool's workers only
+        ForkJoinPool pool = new ForkJoinPool(opts.parallelism);
+        try {
+            return pool.submit(() -> files.parallelStream()
+                    .map(f -> parseSessionFile(f, opts.headBytes))
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while parsing sessions", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed parsing sessions", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Group: cwd → branch → all sessions (sorted desc by time), on the store's primitive keys
+    static SessionStore groupSessions(SessionManifest manifest) {
+        long start = System.nanoTime();
+        SessionStore store = manifest.store();
+        PHASE_GROUP.since(start);
+        return store;
+    }
+
+    /**
+     * Parse the head of one session file, reading at most {@code headBytes} bytes. Lines are only
+     * handed to the JSON parser when they contain a marker for something still missing; a file
+     * whose first useful user message lies beyond the budget gets "(no user message)".
+     */
+    static SessionInfo parseSessionFile(Path file, long headBytes) {
+        SessionHeadParser head = new SessionHeadParser();
+        // Lines read, lines handed to the JSON parser
+        int[] lines = new int[2];
+
+        try (InputStream in = SessionHeadReader.open(file)) {
+            SessionHeadReader.readLines(in, headBytes, (buf, off, len) -> {
+                lines[0]++;
+                if ((head.needsMeta() && SessionHeadReader.contains(buf, off, len, SESSION_META_MARKER))
+                        || (head.needsUserMessage() && SessionHeadReader.contains(buf, off, len, INPUT_TEXT_MARKER))) {
+                    lines[1]++;
+                    head.accept(buf, off, len);
+                }
+                return !head.isDone();
+            });
         } catch (IOException e) {
+            FILES_FAILED.inc();
             System.err.println("Failed to parse " + file + ": " + e.getMessage());
             return null;
         }
+        LINES_READ.add(lines[0]);
+        LINES_PARSED.add(lines[1]);
+        LINES_PER_FILE.observe(lines[0]);
 
         SessionInfo info = new SessionInfo();
-        info.firstUserMessage = (firstUserMessage == null) ? "(no user message)" : firstUserMessage;
-        info.branch = branch == null ? "(no-branch)" : branch;
-        info.time = time;
-        info.sessionId = sessionId;
-        info.file = cwd != null ? cwd : "(no-cwd)";
+        info.firstUserMessage = (head.firstUserMessage == null) ? "(no user message)" : head.firstUserMessage;
+        info.branch = head.branch == null ? SessionStore.NO_BRANCH : head.branch;
+        info.time = head.time;
+        info.sessionId = head.sessionId;
+        info.file = head.cwd != null ? head.cwd : SessionStore.NO_CWD;
         info.jsonlFilePath = file.toString();
         return info;
     }
 
-    private static Instant parseInstant(String s) {
-        try { return Instant.parse(s); } catch (Exception e) { return Instant.EPOCH; }
-    }
-
-    private static String asText(JsonNode node, String field) {
-        JsonNode n = node.path(field);
-        return n.isMissingNode() || n.isNull() ? null : n.asText();
-    }
-
-    private static boolean isUsefulMessage(String text) {
+    static boolean isUsefulMessage(String text) {
         if (text == null) return false;
         text = text.trim();
         return !text.isEmpty()
@@ -172,17 +601,11 @@ public class CodexIndexGenerator {
                 && !text.startsWith("[");
     }
 
-    private static String cleanMessage(String text) {
-        return Pattern.compile("<[^>]+>").matcher(text).replaceAll("").trim();
-    }
-
-    private static String shorten(String text) {
-        text = text.replaceAll("\\s+", " ").trim();
-        return text.length() > 120 ? text.substring(0, 117) + "..." : text;
+    static String cleanMessage(String text) {
+        return TextPipeline.stripTags(text);
     }
 
-    private static String extractCwdFromPath(String filePath) {
-        // fallback: use full cwd path (since stored in metadata)
-        return filePath;
+    static String shorten(String text) {
+        return TextPipeline.squash(text, TextPipeline.PREVIEW_LIMIT);
     }
 }
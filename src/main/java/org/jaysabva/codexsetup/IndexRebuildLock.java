@@ -0,0 +1,152 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Objects;
+
+/**
+ * Single-flight index rebuilds across processes. Several terminals opening the picker at once all
+ * ask for a rebuild; the first to take the lock on {@code codex_sessions_index.lock} runs it, the
+ * others block on the lock. When a waiter gets it, the rebuild it waited on has just finished,
+ * and if that rebuild covered the same request (sessions root, window, index kinds) the waiter
+ * reuses its files instead of walking the tree again.
+ *
+ * The lock file holds a stamp of the last finished rebuild, rewritten under the lock. Windows
+ * from {@code --days} are computed at launch, so two launches a few seconds apart still count as
+ * the same request.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+class IndexRebuildLock {
+
+    // Launches of the same command further apart than this rebuild again
+    private static final long WINDOW_SLACK_MILLIS = 60_000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private static final Metrics.Counter BUILT = Metrics.counter("codex_index_rebuilds_total",
+            "Index rebuild requests by outcome", "result", "built");
+    private static final Metrics.Counter REUSED = Metrics.counter("codex_index_rebuilds_total",
+            "Index rebuild requests by outcome", "result", "reused");
+    private static final Metrics.Timer PHASE_LOCK_WAIT = CodexIndexGenerator.phase("lock_wait");
+
+    public static class Stamp {
+        public long finished;
+        public String sessionsRoot;
+        public long since;
+        public long until;
+        public boolean binary;
+        public boolean searchIndex;
+        public boolean compact;
+    }
+
+    /** codex_sessions_index.json → codex_sessions_index.lock, next to the JSON index. */
+    static Path lockPath(Path jsonOutput) {
+        String name = jsonOutput.getFileName().toString();
+        String base = name.endsWith(".json") ? name.substring(0, name.length() - ".json".length()) : name;
+        return jsonOutput.resolveSibling(base + ".lock");
+    }
+
+    /**
+     * Run {@code rebuild} under the lock, or reuse the rebuild that held the lock when this one
+     * arrived if it matched {@code opts}.
+     *
+     * @return false when an earlier rebuild was reused and {@code rebuild} did not run
+     * @throws IOException when the lock itself is unavailable; {@code rebuild} has not run then
+     */
+    static boolean runOrJoin(CodexIndexGenerator.Options opts, Runnable rebuild) throws IOException {
+        long arrived = System.currentTimeMillis();
+        Path lockFile = lockPath(opts.output.toAbsolutePath());
+        Files.createDirectories(lockFile.getParent());
+        try (FileChannel channel = FileChannel.open(lockFile,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (channel.tryLock() == null) {
+                long start = System.nanoTime();
+                channel.lock();
+                PHASE_LOCK_WAIT.since(start);
+                // Finished after we arrived: it was in flight all along, so it saw what we would see
+                Stamp last = read(channel);
+                if (last != null && last.finished >= arrived && matches(last, stamp(opts))) {
+                    REUSED.inc();
+                    return false;
+                }
+            }
+
+            rebuild.run();
+            BUILT.inc();
+
+            writeStamp(channel, opts);
+            return true;
+        }
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                      Private Methods                                                           *//
+    //**********************************************************************************************************************************//
+
+    private static Stamp stamp(CodexIndexGenerator.Options opts) {
+        Stamp s = new Stamp();
+        s.sessionsRoot = opts.sessionsRoot.toAbsolutePath().normalize().toString();
+        s.since = opts.sinceMillis;
+        s.until = opts.untilMillis;
+        s.binary = opts.binary;
+        s.searchIndex = opts.searchIndex;
+        s.compact = opts.compactAge != null;
+        return s;
+    }
+
+    // The earlier run must have written at least the index kinds asked for; compaction always runs
+    private static boolean matches(Stamp last, Stamp want) {
+        return !want.compact
+                && Objects.equals(last.sessionsRoot, want.sessionsRoot)
+                && (last.binary || !want.binary)
+                && (last.searchIndex || !want.searchIndex)
+                && close(last.since, want.since)
+                && close(last.until, want.until);
+    }
+
+    private static boolean close(long a, long b) {
+        if (a == b) return true;
+        // Unbounded ends only match each other
+        if (a == Long.MIN_VALUE || a == Long.MAX_VALUE || b == Long.MIN_VALUE || b == Long.MAX_VALUE) return false;
+        return Math.abs(a - b) <= WINDOW_SLACK_MILLIS;
+    }
+
+    // Without a stamp the next waiter simply rebuilds again
+    private static void writeStamp(FileChannel channel, CodexIndexGenerator.Options opts) {
+        Stamp done = stamp(opts);
+        done.finished = System.currentTimeMillis();
+        try {
+            ByteBuffer bytes = ByteBuffer.wrap(MAPPER.writeValueAsBytes(done));
+            channel.truncate(0);
+            while (bytes.hasRemaining()) channel.write(bytes, bytes.position());
+        } catch (IOException e) {
+            System.err.println("Failed writing rebuild stamp: " + e.getMessage());
+        }
+    }
+
+    private static Stamp read(FileChannel channel) {
+        try {
+            long size = channel.size();
+            if (size == 0 || size > 64 * 1024) return null;
+            ByteBuffer buf = ByteBuffer.allocate((int) size);
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, buf.position()) <= 0) break;
+            }
+            return MAPPER.readValue(buf.array(), 0, buf.position(), Stamp.class);
+        } catch (IOException e) {
+            // A stamp cut short by a crash: rebuild
+            return null;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package org.jaysabva.codexsetup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plumbing shared by the two resident processes ({@link NotifierAgent}, {@link SessionIndexDaemon})
+ * that answer one request line per connection. Connections are served on a small pool, each under
+ * a deadline after which its channel is closed: blocking channel reads have no timeout of their
+ * own, and one client that never sends a newline must not stall everyone else. Before a socket
+ * file is replaced it is probed with {@code PING}, so a second instance refuses to start instead of
+ * unlinking the socket of one that is running.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+final class LocalSockets {
+
+    // Whole exchange: request line in, response out
+    static final long CONNECTION_DEADLINE_MILLIS = 10_000;
+    static final int CONNECTION_THREADS = 4;
+    private static final long PING_DEADLINE_MILLIS = 1000;
+
+    private static final ScheduledExecutorService DEADLINES =
+            Executors.newSingleThreadScheduledExecutor(daemonThreads("socket-deadline"));
+
+    private LocalSockets() {
+    }
+
+    interface Handler {
+        void handle(SocketChannel client) throws IOException;
+    }
+
+    static ExecutorService connectionPool(String name) {
+        return Executors.newFixedThreadPool(CONNECTION_THREADS, daemonThreads(name));
+    }
+
+    /** Serve {@code client} on {@code pool}, closing it when done or when the deadline passes. */
+    static void serve(ExecutorService pool, SocketChannel client, Handler handler) {
+        pool.execute(() -> {
+            Future<?> deadline = closeAfter(client, CONNECTION_DEADLINE_MILLIS);
+            try (client) {
+                handler.handle(client);
+            } catch (AsynchronousCloseException e) {
+                System.err.println("Socket client dropped after " + CONNECTION_DEADLINE_MILLIS + " ms without finishing its request");
+            } catch (IOException e) {
+                System.err.println("Socket error: " + e.getMessage());
+            } finally {
+                deadline.cancel(false);
+            }
+        });
+    }
+
+    /** Whether something already answers {@code PING} with {@code PONG} on {@code socket}. */
+    static boolean inUse(Path socket) {
+        if (!Files.exists(socket)) return false;
+        return answersPing(UnixDomainSocketAddress.of(socket));
+    }
+
+    static boolean answersPing(SocketAddress address) {
+        return "PONG".equals(request(address, "PING", PING_DEADLINE_MILLIS));
+    }
+
+    /**
+     * Send one request line and read the one-line reply. Null when nothing listens, the connection
+     * drops, or no reply comes within {@code millis}.
+     */
+    static String request(SocketAddress address, String line, long millis) {
+        try (SocketChannel channel = SocketChannel.open(address)) {
+            Future<?> deadline = closeAfter(channel, millis);
+            try {
+                ByteBuffer buf = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+                while (buf.hasRemaining()) channel.write(buf);
+                BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+                return in.readLine();
+            } finally {
+                deadline.cancel(false);
+            }
+        } catch (IOException e) {
+            // Refused (a stale socket file), or no answer in time
+            return null;
+        }
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                      Private Methods                                                           *//
+    //**********************************************************************************************************************************//
+
+    // Closing the channel makes a blocked read or write fail with AsynchronousCloseException
+    private static Future<?> closeAfter(SocketChannel channel, long millis) {
+        return DEADLINES.schedule(() -> {
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+        }, millis, TimeUnit.MILLISECONDS);
+    }
+
+    private static ThreadFactory daemonThreads(String name) {
+        return r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
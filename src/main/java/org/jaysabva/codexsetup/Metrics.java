@@ -0,0 +1,324 @@
+package org.jaysabva.codexsetup;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Process-wide counters, phase timers and histograms for the indexer and the notifier. Metrics
+ * are registered once into static fields and updated with {@link LongAdder}s, so recording is a
+ * few uncontended adds and stays on all the time. {@code --stats} prints them to stderr when the
+ * run ends; {@code --metrics-file <path>} writes the Prometheus text format, replaced atomically
+ * so node_exporter's textfile collector never sees half a file. Long-running processes (the
+ * session daemon, the notifier agent and drainer) rewrite the file periodically.
+ *
+ * Each process reports its own numbers only; counters start from zero with every process.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+final class Metrics {
+
+    /** Where notifier processes write metrics; forwarded to the drainer process it spawns. */
+    static final String FILE_PROPERTY = "codex.metrics.file";
+
+    // Seconds; covers a pooled keep-alive post up to the request timeout
+    static final double[] LATENCY_BUCKETS = { 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30 };
+
+    private static final Map<String, Family> FAMILIES = new LinkedHashMap<>();
+
+    private Metrics() {
+    }
+
+    static Counter counter(String name, String help) {
+        return counter(name, help, null, null);
+    }
+
+    static Counter counter(String name, String help, String label, String value) {
+        return child(name, help, "counter", label, value, Counter::new);
+    }
+
+    /** Durations in seconds, exported as a summary (sum and count per label). */
+    static Timer timer(String name, String help, String label, String value) {
+        return child(name, help, "summary", label, value, Timer::new);
+    }
+
+    static Histogram histogram(String name, String help, double[] bounds) {
+        return histogram(name, help, bounds, null, null);
+    }
+
+    static Histogram histogram(String name, String help, double[] bounds, String label, String value) {
+        return child(name, help, "histogram", label, value, () -> new Histogram(bounds));
+    }
+
+    static Path configuredFile() {
+        String file = System.getProperty(FILE_PROPERTY);
+        return file == null || file.isBlank() ? null : Paths.get(file);
+    }
+
+    /** End of a run: {@code --stats} to stderr, and the Prometheus file when one was asked for. */
+    static void report(boolean stats, Path file) {
+        if (stats) print(System.err);
+        if (file != null) {
+            try {
+                write(file);
+            } catch (IOException e) {
+                System.err.println("Failed writing metrics: " + e.getMessage());
+            }
+        }
+    }
+
+    /** Rewrite {@code file} every {@code periodSeconds} from a daemon thread, and once more at shutdown. */
+    static void startWriter(Path file, long periodSeconds) {
+        ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "metrics-writer");
+            t.setDaemon(true);
+            return t;
+        });
+        writer.scheduleWithFixedDelay(() -> report(false, file), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> report(false, file)));
+    }
+
+    /** Prometheus text exposition format, written to a temp file and moved over {@code file}. */
+    static void write(Path file) throws IOException {
+        StringBuilder sb = new StringBuilder(4096);
+        for (Family family : families()) {
+            sb.append("# HELP ").append(family.name).append(' ').append(family.help).append('\n');
+            sb.append("# TYPE ").append(family.name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Metric> child : family.children()) {
+                child.getValue().expose(family.name, child.getKey(), sb);
+            }
+        }
+
+        AtomicFiles.write(file, sb.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** One line per metric with something recorded. */
+    static void print(PrintStream out) {
+        StringBuilder sb = new StringBuilder("-- stats --\n");
+        for (Family family : families()) {
+            for (Map.Entry<String, Metric> child : family.children()) {
+                Metric m = child.getValue();
+                if (m.isEmpty()) continue;
+                String name = family.name + (child.getKey().isEmpty() ? "" : "{" + child.getKey() + "}");
+                sb.append(String.format(Locale.ROOT, "  %-58s %s%n", name, m.summary()));
+            }
+        }
+        out.print(sb);
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                          Metrics                                                               *//
+    //**********************************************************************************************************************************//
+
+    abstract static class Metric {
+        abstract void expose(String name, String labels, StringBuilder sb);
+
+        abstract String summary();
+
+        abstract boolean isEmpty();
+    }
+
+    static final class Counter extends Metric {
+        private final LongAdder value = new LongAdder();
+
+        void inc() {
+            value.increment();
+        }
+
+        void add(long n) {
+            value.add(n);
+        }
+
+        long get() {
+            return value.sum();
+        }
+
+        @Override
+        void expose(String name, String labels, StringBuilder sb) {
+            sample(sb, name, labels, null, Long.toString(value.sum()));
+        }
+
+        @Override
+        String summary() {
+            return Long.toString(value.sum());
+        }
+
+        @Override
+        boolean isEmpty() {
+            return value.sum() == 0;
+        }
+    }
+
+    static final class Timer extends Metric {
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder count = new LongAdder();
+
+        /** Record the time since {@code startNanos} (a {@link System#nanoTime()} reading). */
+        long since(long startNanos) {
+            long elapsed = System.nanoTime() - startNanos;
+            nanos.add(elapsed);
+            count.increment();
+            return elapsed;
+        }
+
+        @Override
+        void expose(String name, String labels, StringBuilder sb) {
+            sample(sb, name + "_sum", labels, null, seconds(nanos.sum()));
+            sample(sb, name + "_count", labels, null, Long.toString(count.sum()));
+        }
+
+        @Override
+        String summary() {
+            long n = count.sum();
+            String total = String.format(Locale.ROOT, "%.3f ms", nanos.sum() / 1e6);
+            return n == 1 ? total : total + " (" + n + " times)";
+        }
+
+        @Override
+        boolean isEmpty() {
+            return count.sum() == 0;
+        }
+    }
+
+    static final class Histogram extends Metric {
+        private final double[] bounds;
+        // One per bound plus +Inf; not cumulative until exposed
+        private final LongAdder[] buckets;
+        private final DoubleAdder sum = new DoubleAdder();
+
+        Histogram(double[] bounds) {
+            this.bounds = bounds;
+            this.buckets = new LongAdder[bounds.length + 1];
+            for (int i = 0; i < buckets.length; i++) buckets[i] = new LongAdder();
+        }
+
+        void observe(double value) {
+            int i = 0;
+            while (i < bounds.length && value > bounds[i]) i++;
+            buckets[i].increment();
+            sum.add(value);
+        }
+
+        /** Observe the time since {@code startNanos}, in seconds. */
+        void observeSince(long startNanos) {
+            observe((System.nanoTime() - startNanos) / 1e9);
+        }
+
+        @Override
+        void expose(String name, String labels, StringBuilder sb) {
+            long cumulative = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                cumulative += buckets[i].sum();
+                String le = i < bounds.length ? number(bounds[i]) : "+Inf";
+                sample(sb, name + "_bucket", labels, "le=\"" + le + "\"", Long.toString(cumulative));
+            }
+            sample(sb, name + "_sum", labels, null, number(sum.sum()));
+            sample(sb, name + "_count", labels, null, Long.toString(cumulative));
+        }
+
+        @Override
+        String summary() {
+            long[] counts = new long[buckets.length];
+            long n = 0;
+            for (int i = 0; i < counts.length; i++) n += counts[i] = buckets[i].sum();
+            return String.format(Locale.ROOT, "n=%d mean=%.4g p50<=%s p99<=%s",
+                    n, sum.sum() / n, upperBound(counts, n, 0.50), upperBound(counts, n, 0.99));
+        }
+
+        @Override
+        boolean isEmpty() {
+            for (LongAdder b : buckets) if (b.sum() > 0) return false;
+            return true;
+        }
+
+        // Bucket bound holding the q-quantile; buckets only give an upper bound
+        private String upperBound(long[] counts, long n, double q) {
+            long rank = (long) Math.ceil(q * n);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) return i < bounds.length ? number(bounds[i]) : "+Inf";
+            }
+            return "+Inf";
+        }
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                      Private Methods                                                           *//
+    //**********************************************************************************************************************************//
+
+    private static final class Family {
+        final String name;
+        final String help;
+        final String type;
+        // Rendered labels (e.g. phase="walk") → metric
+        final Map<String, Metric> children = new LinkedHashMap<>();
+
+        Family(String name, String help, String type) {
+            this.name = name;
+            this.help = help;
+            this.type = type;
+        }
+
+        List<Map.Entry<String, Metric>> children() {
+            synchronized (Metrics.class) {
+                return new ArrayList<>(children.entrySet());
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <M extends Metric> M child(String name, String help, String type, String label, String value, Supplier<M> create) {
+        String labels = label == null ? "" : label + "=\"" + escape(value) + "\"";
+        synchronized (Metrics.class) {
+            Family family = FAMILIES.computeIfAbsent(name, n -> new Family(n, help, type));
+            if (!family.type.equals(type)) throw new IllegalArgumentException(name + " is a " + family.type);
+            return (M) family.children.computeIfAbsent(labels, l -> create.get());
+        }
+    }
+
+    private static List<Family> families() {
+        synchronized (Metrics.class) {
+            return new ArrayList<>(FAMILIES.values());
+        }
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, String extra, String value) {
+        sb.append(name);
+        if (!labels.isEmpty() || extra != null) {
+            sb.append('{').append(labels);
+            if (extra != null) sb.append(labels.isEmpty() ? "" : ",").append(extra);
+            sb.append('}');
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+
+    private static String seconds(long nanos) {
+        return number(nanos / 1e9);
+    }
+
+    // Whole numbers without a fraction; Prometheus parses Java's exponent form as well
+    private static String number(double v) {
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) return Long.toString((long) v);
+        return Double.toString(v);
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
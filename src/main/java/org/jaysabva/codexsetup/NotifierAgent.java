@@ -0,0 +1,182 @@
+package org.jaysabva.codexsetup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Resident notifier: takes the same agent-turn-complete JSON the notify hook receives over a
+ * local socket and handles it in one long-lived JVM. Its posts go through the {@link SlackOutbox}
+ * drained by a thread of this process, so Slack webhooks reuse pooled keep-alive connections
+ * instead of a cold start and a TLS handshake per turn.
+ *
+ * Protocol: one line per connection. {@code PING} answers {@code PONG}; anything else is an event,
+ * rendered and appended to the outbox on the connection's thread before the agent answers
+ * {@code OK}. A client that gets no {@code OK} delivers the event itself, so an agent that dies
+ * with events in hand loses none (at worst one is posted twice). Connections are served
+ * concurrently and closed after {@link LocalSockets#CONNECTION_DEADLINE_MILLIS}; a second agent
+ * refuses to start while the socket answers {@code PING}.
+ *
+ * Server: {@code java -jar slack-notifier.jar --serve [--socket <path> | --port <n>]} (Unix domain
+ * socket at ~/.codex/slack_notifier.sock by default, or a loopback TCP port). Clients pick the
+ * endpoint up from {@code -Dcodex.notifier.socket} / {@code -Dcodex.notifier.port}. Webhook URLs
+ * can be pointed at a local stub server with system properties named like the env variables,
+ * e.g. {@code -DJUGGERNAUT_REVIEW_WEBHOOK_URL=http://127.0.0.1:8089/review}. With
+ * {@code slack-notifier.jar --metrics-file <path> --serve} the agent keeps a Prometheus file of its
+ * {@link Metrics} up to date.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+public class NotifierAgent {
+
+    static final Path DEFAULT_SOCKET = Paths.get(System.getProperty("user.home"), ".codex", "slack_notifier.sock");
+    private static final long DRAIN_RETRY_MILLIS = 2000;
+    private static final long METRICS_WRITE_SECONDS = 15;
+
+    private final SocketAddress address;
+
+    NotifierAgent(SocketAddress address) {
+        this.address = address;
+    }
+
+    public static void main(String[] args) throws IOException {
+        SocketAddress address = UnixDomainSocketAddress.of(DEFAULT_SOCKET);
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("--socket") && i + 1 < args.length) {
+                address = UnixDomainSocketAddress.of(args[++i]);
+            } else if (args[i].equals("--port") && i + 1 < args.length) {
+                address = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(args[++i]));
+            } else {
+                System.err.println("Usage: java -jar slack-notifier.jar --serve [--socket <path> | --port <n>]");
+                System.exit(2);
+            }
+        }
+        new NotifierAgent(address).serve();
+    }
+
+    /** Endpoint clients should talk to, from system properties. */
+    static SocketAddress clientAddress() {
+        String port = System.getProperty("codex.notifier.port");
+        if (port != null) return new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(port));
+        return UnixDomainSocketAddress.of(System.getProperty("codex.notifier.socket", DEFAULT_SOCKET.toString()));
+    }
+
+    /**
+     * Thin client: hand {@code eventJson} to a running agent and return once it is in the outbox,
+     * without waiting for delivery. False when no agent confirmed it, so the caller can deliver
+     * in-process.
+     */
+    static boolean forward(String eventJson) {
+        SocketAddress target = clientAddress();
+        if (target instanceof UnixDomainSocketAddress && !Files.exists(((UnixDomainSocketAddress) target).getPath())) {
+            return false;
+        }
+        // Raw line breaks in JSON can only be insignificant whitespace, so one line carries the event
+        String line = eventJson.replace('\n', ' ').replace('\r', ' ');
+        return "OK".equals(LocalSockets.request(target, line, LocalSockets.CONNECTION_DEADLINE_MILLIS));
+    }
+
+    void serve() throws IOException {
+        ServerSocketChannel server;
+        if (address instanceof UnixDomainSocketAddress) {
+            Path socket = ((UnixDomainSocketAddress) address).getPath();
+            // Only a stale socket file may be replaced, never a running agent's
+            if (LocalSockets.inUse(socket)) {
+                System.err.println("Slack notifier agent already running on: " + socket);
+                System.exit(1);
+            }
+            Files.deleteIfExists(socket);
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    server.close();
+                    Files.deleteIfExists(socket);
+                } catch (IOException ignore) {
+                }
+            }));
+        } else {
+            server = ServerSocketChannel.open();
+        }
+        server.bind(address);
+        startDrainer();
+        Path metricsFile = Metrics.configuredFile();
+        if (metricsFile != null) Metrics.startWriter(metricsFile, METRICS_WRITE_SECONDS);
+        System.out.println("✅ Slack notifier agent listening on: " + address);
+
+        // One idle or slow client only ever holds its own connection, and only until its deadline
+        ExecutorService connections = LocalSockets.connectionPool("slack-notifier-socket");
+        while (server.isOpen()) {
+            try {
+                LocalSockets.serve(connections, server.accept(), this::handle);
+            } catch (IOException e) {
+                if (server.isOpen()) System.err.println("Socket error: " + e.getMessage());
+            }
+        }
+    }
+
+    private void startDrainer() {
+        SlackOutbox outbox = SlackOutbox.open();
+        SlackOutbox.inProcess = outbox;
+        Thread drainer = new Thread(() -> {
+            while (true) {
+                try {
+                    // False while a spawned --drain process still owns the outbox
+                    if (!outbox.drain(false)) Thread.sleep(DRAIN_RETRY_MILLIS);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Outbox drainer failed: " + e.getMessage());
+                    try {
+                        Thread.sleep(DRAIN_RETRY_MILLIS);
+                    } catch (InterruptedException ie) {
+                        return;
+                    }
+                }
+            }
+        }, "slack-outbox");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    private void handle(SocketChannel client) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+        String line = in.readLine();
+        if (line == null || line.isBlank()) return;
+
+        if (line.equals("PING")) {
+            reply(client, "PONG");
+            return;
+        }
+        try {
+            SlackNotifier.handle(line);
+        } catch (IOException | RuntimeException e) {
+            // No OK: the client handles the event itself and reports the failure
+            System.err.println("Failed handling event: " + e.getMessage());
+            return;
+        }
+        // Only once its posts are in the outbox
+        reply(client, "OK");
+    }
+
+    private static void reply(SocketChannel client, String line) throws IOException {
+        OutputStream out = Channels.newOutputStream(client);
+        out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
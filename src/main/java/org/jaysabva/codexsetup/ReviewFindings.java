@@ -0,0 +1,107 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Review findings read one at a time off the parser into a bounded top-K, so a review with
+ * thousands of findings costs the memory of {@code capacity} of them. Findings are ranked by
+ * severity: lowest priority number first (P0 is the most severe), then highest confidence score,
+ * and among equal findings the later one first. The same ranking decides what is kept and the
+ * order it is rendered in, so truncation always sheds the least severe findings. Whatever falls out
+ * of the top-K is only counted, per priority, for the overflow note.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+class ReviewFindings {
+
+    static final int MAX_FINDINGS = 50;
+
+    // Ascending = least severe first (highest priority number, lowest confidence), so the heap head is the next one to evict
+    private static final Comparator<Ranked> RANK = Comparator.<Ranked>comparingInt(r -> -r.finding.priority)
+            .thenComparing((a, b) -> Double.compare(a.finding.confidence_score, b.finding.confidence_score))
+            .thenComparingInt(r -> r.seq);
+
+    private final int capacity;
+    private final PriorityQueue<Ranked> top;
+    private final TreeMap<Integer, Integer> droppedByPriority = new TreeMap<>();
+    private int seen;
+    private int dropped;
+
+    ReviewFindings(int capacity) {
+        this.capacity = capacity;
+        this.top = new PriorityQueue<>(Math.min(capacity, 64) + 1, RANK);
+    }
+
+    /** Streams the array the parser is positioned on (its START_ARRAY), leaving it on the END_ARRAY. */
+    static ReviewFindings read(JsonParser parser, ObjectMapper mapper, int capacity) throws IOException {
+        ReviewFindings findings = new ReviewFindings(capacity);
+        JsonToken t;
+        while ((t = parser.nextToken()) != JsonToken.END_ARRAY) {
+            if (t == null) throw new IOException("Unexpected end of findings array");
+            if (t == JsonToken.VALUE_NULL) continue;
+            findings.offer(mapper.readValue(parser, SlackNotifier.Finding.class));
+        }
+        return findings;
+    }
+
+    void offer(SlackNotifier.Finding finding) {
+        Ranked r = new Ranked(finding, seen++);
+        if (top.size() < capacity) {
+            top.add(r);
+        } else if (capacity > 0 && RANK.compare(r, top.peek()) > 0) {
+            drop(top.poll().finding);
+            top.add(r);
+        } else {
+            drop(finding);
+        }
+    }
+
+    /** Kept findings, most severe first. */
+    List<SlackNotifier.Finding> ranked() {
+        List<Ranked> sorted = new ArrayList<>(top);
+        sorted.sort(RANK.reversed());
+        List<SlackNotifier.Finding> out = new ArrayList<>(sorted.size());
+        for (Ranked r : sorted) out.add(r.finding);
+        return out;
+    }
+
+    int dropped() {
+        return dropped;
+    }
+
+    /** Dropped count per priority, most severe (P0) first. */
+    SortedMap<Integer, Integer> droppedByPriority() {
+        return droppedByPriority;
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                      Private Methods                                                           *//
+    //**********************************************************************************************************************************//
+
+    private void drop(SlackNotifier.Finding finding) {
+        dropped++;
+        droppedByPriority.merge(finding.priority, 1, Integer::sum);
+    }
+
+    private static final class Ranked {
+        final SlackNotifier.Finding finding;
+        final int seq;
+
+        Ranked(SlackNotifier.Finding finding, int seq) {
+            this.finding = finding;
+            this.seq = seq;
+        }
+    }
+}
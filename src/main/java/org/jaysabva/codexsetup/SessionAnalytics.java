@@ -0,0 +1,421 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Per-session aggregates that need a full pass over the transcript: user and assistant turns,
+ * tool calls, wall-clock span and, where the transcript records them, token totals. They live in
+ * {@code codex_sessions_analytics.json} next to the index, keyed by transcript path with the size
+ * and mtime they were computed at, so a transcript is read again only after it changed.
+ *
+ * The pass never runs on the picker's path: {@code --analytics} starts a detached
+ * {@code --refresh-analytics} process once the index is written (one at a time, under a file lock),
+ * and the daemon refreshes on its own thread. Queries sort on whatever the cache holds; sessions
+ * not analysed yet sort last.
+ *
+ * A user turn is a user message with a useful {@code input_text} (the same rule as the picker's
+ * first message), an assistant turn an assistant message, a tool call any {@code *_call} item.
+ * Tokens are the last cumulative {@code token_count} the transcript holds.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+class SessionAnalytics {
+
+    // Bump whenever counting rules change so stale aggregates are recomputed
+    static final int VERSION = 1;
+    static final String FILE_NAME = "codex_sessions_analytics.json";
+    static final List<String> SORT_KEYS = Arrays.asList("time", "turns", "duration", "tokens", "tools");
+
+    private static final String LOCK_SUFFIX = ".lock";
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private static final Metrics.Counter COMPUTED = Metrics.counter("codex_index_analytics_files_total",
+            "Transcripts by what the analytics refresh did with them", "result", "computed");
+    private static final Metrics.Counter CACHED = Metrics.counter("codex_index_analytics_files_total",
+            "Transcripts by what the analytics refresh did with them", "result", "cached");
+    private static final Metrics.Counter FAILED = Metrics.counter("codex_index_analytics_files_total",
+            "Transcripts by what the analytics refresh did with them", "result", "failed");
+    private static final Metrics.Timer PHASE_ANALYTICS = CodexIndexGenerator.phase("analytics");
+
+    public int version = VERSION;
+    public Map<String, Entry> entries = new HashMap<>();
+
+    static class Entry {
+        public long size;
+        public long mtime;
+        public Stats stats;
+    }
+
+    static class Stats {
+        public int userTurns;
+        public int assistantTurns;
+        public int toolCalls;
+        // Epoch millis of the first and last timestamped line; 0 when the transcript has none
+        public long startMillis;
+        public long endMillis;
+        // Null when the transcript never recorded a token count
+        public Long inputTokens;
+        public Long cachedInputTokens;
+        public Long outputTokens;
+        public Long reasoningOutputTokens;
+        public Long totalTokens;
+
+        long durationMillis() {
+            return startMillis > 0 && endMillis > startMillis ? endMillis - startMillis : 0;
+        }
+    }
+
+    static Path cachePath(CodexIndexGenerator.Options opts) {
+        return opts.output.resolveSibling(FILE_NAME);
+    }
+
+    static SessionAnalytics load(Path file) {
+        if (!Files.isRegularFile(file)) return new SessionAnalytics();
+        try {
+            SessionAnalytics cache = MAPPER.readValue(file.toFile(), SessionAnalytics.class);
+            if (cache.version != VERSION || cache.entries == null) return new SessionAnalytics();
+            return cache;
+        } catch (IOException e) {
+            // Unreadable cache: everything is recomputed on the next refresh
+            System.err.println("Ignoring unreadable analytics " + file + ": " + e.getMessage());
+            return new SessionAnalytics();
+        }
+    }
+
+    /** Transcript path → aggregates, for sorting query results. */
+    Map<String, Stats> byPath() {
+        Map<String, Stats> out = new HashMap<>(entries.size() * 2);
+        for (Map.Entry<String, Entry> e : entries.entrySet()) {
+            if (e.getValue().stats != null) out.put(e.getKey(), e.getValue().stats);
+        }
+        return out;
+    }
+
+    /**
+     * Bring the cache at {@code file} in line with {@code files}: unchanged transcripts keep their
+     * aggregates, new or changed ones are read in full on {@code parallelism} workers, and entries
+     * for transcripts that are gone are dropped. The cache is replaced atomically.
+     */
+    static SessionAnalytics refresh(Path file, Collection<String> files, int parallelism) throws IOException {
+        long start = System.nanoTime();
+        SessionAnalytics previous = load(file);
+        SessionAnalytics current = new SessionAnalytics();
+
+        List<Path> toCompute = new ArrayList<>();
+        List<BasicFileAttributes> toComputeAttrs = new ArrayList<>();
+        for (String f : files) {
+            Path p = Paths.get(f);
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(p, BasicFileAttributes.class);
+            } catch (IOException gone) {
+                continue;
+            }
+            Entry cached = previous.entries.get(f);
+            if (cached != null && cached.stats != null && cached.size == attrs.size()
+                    && cached.mtime == attrs.lastModifiedTime().toMillis()) {
+                CACHED.inc();
+                current.entries.put(f, cached);
+            } else {
+                toCompute.add(p);
+                toComputeAttrs.add(attrs);
+            }
+        }
+
+        List<Stats> computed = computeAll(toCompute, parallelism);
+        for (int i = 0; i < toCompute.size(); i++) {
+            if (computed.get(i) == null) continue;
+            Entry e = new Entry();
+            e.size = toComputeAttrs.get(i).size();
+            e.mtime = toComputeAttrs.get(i).lastModifiedTime().toMillis();
+            e.stats = computed.get(i);
+            current.entries.put(toCompute.get(i).toString(), e);
+        }
+
+        current.save(file);
+        PHASE_ANALYTICS.since(start);
+        return current;
+    }
+
+    /**
+     * The detached {@code --refresh-analytics} run: refresh from the manifest the index run just
+     * saved. Returns false without doing anything when another refresh holds the lock.
+     */
+    static boolean refreshUnderLock(CodexIndexGenerator.Options opts) throws IOException {
+        Path file = cachePath(opts);
+        try (FileChannel lockChannel = FileChannel.open(file.resolveSibling(FILE_NAME + LOCK_SUFFIX),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = lockChannel.tryLock();
+            if (lock == null) return false;
+            SessionManifest manifest = SessionManifest.load(CodexIndexGenerator.manifestPath(opts));
+            refresh(file, manifest.sessionPaths(), opts.parallelism);
+            return true;
+        }
+    }
+
+    /** Start a detached {@code --refresh-analytics} process for the index at {@code opts.output}. */
+    static void spawnRefresh(CodexIndexGenerator.Options opts) {
+        Path file = cachePath(opts);
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<String> cmd = new ArrayList<>(Arrays.asList(java, "-cp", System.getProperty("java.class.path"),
+                CodexIndexGenerator.class.getName(), "--refresh-analytics",
+                "--output", opts.output.toString(), "--parallelism", Integer.toString(opts.parallelism)));
+        if (opts.metricsFile != null) cmd.addAll(Arrays.asList("--metrics-file", opts.metricsFile.toString()));
+        try {
+            new ProcessBuilder(cmd)
+                    .redirectInput(ProcessBuilder.Redirect.from(Paths.get("/dev/null").toFile()))
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.appendTo(file.resolveSibling("codex_sessions_analytics.log").toFile()))
+                    .start();
+        } catch (IOException e) {
+            System.err.println("Could not start analytics refresh: " + e.getMessage());
+        }
+    }
+
+    /** Read one transcript end to end. */
+    static Stats compute(Path file) throws IOException {
+        Counter counter = new Counter();
+        try (InputStream in = SessionHeadReader.open(file)) {
+            SessionHeadReader.readLines(in, Long.MAX_VALUE, (buf, off, len) -> {
+                counter.accept(buf, off, len);
+                return true;
+            });
+        }
+        return counter.stats();
+    }
+
+    void save(Path file) throws IOException {
+        AtomicFiles.write(file, out -> MAPPER.writeValue(out, this));
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                      Private Methods                                                           *//
+    //**********************************************************************************************************************************//
+
+    // Index-aligned with files, null for failures
+    private static List<Stats> computeAll(List<Path> files, int parallelism) {
+        if (parallelism <= 1 || files.size() < 2) {
+            List<Stats> out = new ArrayList<>(files.size());
+            for (Path f : files) out.add(computeOrNull(f));
+            return out;
+        }
+
+        // Same dedicated-pool pattern as parsing
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> files.parallelStream()
+                    .map(SessionAnalytics::computeOrNull)
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while analysing sessions", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed analysing sessions", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static Stats computeOrNull(Path file) {
+        try {
+            Stats stats = compute(file);
+            COMPUTED.inc();
+            return stats;
+        } catch (IOException e) {
+            FAILED.inc();
+            System.err.println("Failed to analyse " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Running totals over one transcript. Each line is parsed only as far as it needs to be:
+     * the timestamp and type come first in Codex transcripts, and a payload is abandoned as soon
+     * as its type says the line does not count (tool outputs, the bulk of a transcript, stop there).
+     */
+    private static final class Counter {
+        private final Stats stats = new Stats();
+        private String firstTimestamp;
+        private String lastTimestamp;
+
+        void accept(byte[] buf, int off, int len) {
+            try (JsonParser p = FACTORY.createParser(buf, off, len)) {
+                parseLine(p);
+            } catch (IOException ignore) {
+                // Malformed or cut-off line: whatever it had not counted yet is lost
+            }
+        }
+
+        Stats stats() {
+            stats.startMillis = epochMillis(firstTimestamp);
+            stats.endMillis = epochMillis(lastTimestamp);
+            return stats;
+        }
+
+        private void parseLine(JsonParser p) throws IOException {
+            if (p.nextToken() != JsonToken.START_OBJECT) return;
+            String type = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken v = p.nextToken();
+                if ("timestamp".equals(name) && v == JsonToken.VALUE_STRING) {
+                    if (firstTimestamp == null) firstTimestamp = p.getText();
+                    lastTimestamp = p.getText();
+                } else if ("type".equals(name) && v == JsonToken.VALUE_STRING) {
+                    type = p.getText();
+                } else if ("payload".equals(name) && v == JsonToken.START_OBJECT
+                        && ("response_item".equals(type) || "event_msg".equals(type))) {
+                    if ("response_item".equals(type)) responseItem(p);
+                    else eventMsg(p);
+                    // Everything worth counting on a line is in its payload
+                    return;
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+
+        private void responseItem(JsonParser p) throws IOException {
+            String itemType = null, role = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken v = p.nextToken();
+                if ("type".equals(name) && v == JsonToken.VALUE_STRING) {
+                    itemType = p.getText();
+                    if (itemType.endsWith("_call")) {
+                        stats.toolCalls++;
+                        return;
+                    }
+                    if (!"message".equals(itemType)) return;
+                } else if ("role".equals(name) && v == JsonToken.VALUE_STRING) {
+                    role = p.getText();
+                    if ("assistant".equals(role)) {
+                        stats.assistantTurns++;
+                        return;
+                    }
+                    if (!"user".equals(role)) return;
+                } else if ("content".equals(name) && v == JsonToken.START_ARRAY && "user".equals(role)
+                        && (itemType == null || "message".equals(itemType))) {
+                    if (hasUsefulInputText(p)) stats.userTurns++;
+                    return;
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+
+        private void eventMsg(JsonParser p) throws IOException {
+            boolean tokenCount = false;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken v = p.nextToken();
+                if ("type".equals(name) && v == JsonToken.VALUE_STRING) {
+                    if (!"token_count".equals(p.getText())) return;
+                    tokenCount = true;
+                } else if ("info".equals(name) && v == JsonToken.START_OBJECT && tokenCount) {
+                    tokenUsage(p);
+                    return;
+                } else {
+                    p.skipChildren();
+                }
+            }
+        }
+
+        // info.total_token_usage is cumulative, so the last one in the transcript is the total
+        private void tokenUsage(JsonParser p) throws IOException {
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken v = p.nextToken();
+                if (!"total_token_usage".equals(name) || v != JsonToken.START_OBJECT) {
+                    p.skipChildren();
+                    continue;
+                }
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = p.getCurrentName();
+                    JsonToken n = p.nextToken();
+                    if (n != JsonToken.VALUE_NUMBER_INT) {
+                        p.skipChildren();
+                        continue;
+                    }
+                    long value = p.getLongValue();
+                    switch (field) {
+                        case "input_tokens":
+                            stats.inputTokens = value;
+                            break;
+                        case "cached_input_tokens":
+                            stats.cachedInputTokens = value;
+                            break;
+                        case "output_tokens":
+                            stats.outputTokens = value;
+                            break;
+                        case "reasoning_output_tokens":
+                            stats.reasoningOutputTokens = value;
+                            break;
+                        case "total_tokens":
+                            stats.totalTokens = value;
+                            break;
+                        default:
+                    }
+                }
+                return;
+            }
+        }
+
+        private static boolean hasUsefulInputText(JsonParser p) throws IOException {
+            JsonToken t;
+            while ((t = p.nextToken()) != JsonToken.END_ARRAY && t != null) {
+                if (t != JsonToken.START_OBJECT) {
+                    p.skipChildren();
+                    continue;
+                }
+                String type = null, text = null;
+                while (p.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = p.getCurrentName();
+                    JsonToken v = p.nextToken();
+                    if ("type".equals(name) && v == JsonToken.VALUE_STRING) type = p.getText();
+                    else if ("text".equals(name) && v == JsonToken.VALUE_STRING) text = p.getText();
+                    else p.skipChildren();
+                }
+                if ("input_text".equals(type) && CodexIndexGenerator.isUsefulMessage(text)) return true;
+            }
+            return false;
+        }
+
+        private static long epochMillis(String timestamp) {
+            if (timestamp == null) return 0;
+            try {
+                return Instant.parse(timestamp).toEpochMilli();
+            } catch (Exception e) {
+                return 0;
+            }
+        }
+    }
+}
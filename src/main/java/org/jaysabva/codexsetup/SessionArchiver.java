@@ -0,0 +1,183 @@
+package org.jaysabva.codexsetup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Archival compaction for {@code --compact-older-than <days>}: session transcripts nobody has
+ * written to for that long are gzipped in place, {@code rollout-….jsonl} becoming
+ * {@code rollout-….jsonl.gz} with the same mtime. The indexer reads archives through streaming
+ * decompression that stops at the head, so cold scans touch a fraction of the bytes; the picker
+ * script inflates an archive back before resuming it.
+ *
+ * An archive is written to a temp file, synced, and renamed into place before the original is
+ * deleted; a transcript that changes while being compressed is left alone.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+class SessionArchiver {
+
+    private static final int BUFFER = 64 * 1024;
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private static final Metrics.Counter ARCHIVED =
+            Metrics.counter("codex_index_archived_files_total", "Session transcripts compressed by --compact-older-than");
+    private static final Metrics.Counter BYTES_IN = Metrics.counter("codex_index_archived_bytes_total",
+            "Bytes of transcripts compressed by --compact-older-than", "stage", "before");
+    private static final Metrics.Counter BYTES_OUT = Metrics.counter("codex_index_archived_bytes_total",
+            "Bytes of transcripts compressed by --compact-older-than", "stage", "after");
+
+    static class Result {
+        int compressed;
+        int skipped;
+        int failed;
+        long bytesBefore;
+        long bytesAfter;
+    }
+
+    /** Compress every plain transcript under {@code root} last modified more than {@code age} ago. */
+    static Result compactOlderThan(Path root, Duration age, int parallelism) {
+        FileTime cutoff = FileTime.fromMillis(System.currentTimeMillis() - age.toMillis());
+        List<Path> candidates = new ArrayList<>();
+        try {
+            Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) {
+                    String name = f.toString();
+                    if (name.endsWith(".jsonl" + SessionHeadReader.COMPRESSED_SUFFIX + TMP_SUFFIX)) {
+                        // Left by an interrupted run; its original is still there
+                        deleteQuietly(f);
+                    } else if (attrs.isRegularFile() && name.endsWith(".jsonl") && attrs.lastModifiedTime().compareTo(cutoff) < 0) {
+                        candidates.add(f);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path f, IOException e) {
+                    System.err.println("Skipping " + f + ": " + e.getMessage());
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error scanning sessions: " + e.getMessage());
+        }
+
+        Result result = new Result();
+        for (long[] r : compressAll(candidates, parallelism)) {
+            if (r == null) {
+                result.failed++;
+            } else if (r.length == 0) {
+                result.skipped++;
+            } else {
+                result.compressed++;
+                result.bytesBefore += r[0];
+                result.bytesAfter += r[1];
+            }
+        }
+        ARCHIVED.add(result.compressed);
+        BYTES_IN.add(result.bytesBefore);
+        BYTES_OUT.add(result.bytesAfter);
+        return result;
+    }
+
+    /**
+     * Gzip one transcript next to itself and delete the original.
+     *
+     * @return {before, after} sizes; empty when the file changed meanwhile and was left as is
+     */
+    static long[] compress(Path file) throws IOException {
+        BasicFileAttributes before = Files.readAttributes(file, BasicFileAttributes.class);
+        Path target = file.resolveSibling(file.getFileName() + SessionHeadReader.COMPRESSED_SUFFIX);
+        Path tmp = file.resolveSibling(target.getFileName() + TMP_SUFFIX);
+
+        try {
+            try (InputStream in = Files.newInputStream(file);
+                 FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                         StandardOpenOption.TRUNCATE_EXISTING);
+                 GZIPOutputStream gz = new GZIPOutputStream(Channels.newOutputStream(channel), BUFFER)) {
+                in.transferTo(gz);
+                gz.finish();
+                // On disk before the original goes away
+                channel.force(true);
+            }
+
+            // Written to while we were reading: still live, leave it for a later run
+            BasicFileAttributes after = Files.readAttributes(file, BasicFileAttributes.class);
+            if (after.size() != before.size() || !after.lastModifiedTime().equals(before.lastModifiedTime())) {
+                return new long[0];
+            }
+
+            long compressedSize = Files.size(tmp);
+            Files.setLastModifiedTime(tmp, before.lastModifiedTime());
+            Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.delete(file);
+            return new long[]{ before.size(), compressedSize };
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                      Private Methods                                                           *//
+    //**********************************************************************************************************************************//
+
+    // Index-aligned with files: sizes, empty for skipped, null for failures
+    private static List<long[]> compressAll(List<Path> files, int parallelism) {
+        if (parallelism <= 1 || files.size() < 2) {
+            List<long[]> out = new ArrayList<>(files.size());
+            for (Path f : files) out.add(compressOrNull(f));
+            return out;
+        }
+
+        // Deflate is CPU-bound; same dedicated-pool pattern as parsing
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> files.parallelStream()
+                    .map(SessionArchiver::compressOrNull)
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while compressing sessions", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed compressing sessions", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static long[] compressOrNull(Path file) {
+        try {
+            return compress(file);
+        } catch (IOException e) {
+            System.err.println("Failed to compress " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static void deleteQuietly(Path f) {
+        try {
+            Files.deleteIfExists(f);
+        } catch (IOException ignore) {
+        }
+    }
+}
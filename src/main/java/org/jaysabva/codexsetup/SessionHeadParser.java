@@ -0,0 +1,204 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+
+/**
+ * Streaming extractor for the head of a Codex session transcript.
+ * Lines are fed one at a time; only {@code type}, the {@code session_meta} fields and the first
+ * useful user {@code input_text} are materialized, every other subtree is skipped token by token.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+class SessionHeadParser {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    String sessionId;
+    String time;
+    String cwd;
+    String branch;
+    String firstUserMessage;
+    boolean gotMeta;
+
+    // Fields of interest from one line's payload; null when absent
+    private static class Payload {
+        String id;
+        String timestamp;
+        String cwd;
+        String branch;
+        String type;
+        String role;
+        String text;
+    }
+
+    boolean isDone() {
+        return gotMeta && firstUserMessage != null;
+    }
+
+    boolean needsMeta() {
+        return !gotMeta;
+    }
+
+    boolean needsUserMessage() {
+        return firstUserMessage == null;
+    }
+
+    /** Feed one line; malformed lines are ignored as a whole. */
+    void accept(String line) {
+        try (JsonParser p = FACTORY.createParser(line)) {
+            parseLine(p);
+        } catch (IOException ignore) {
+            // Same as a failed readTree: the line contributes nothing
+        }
+    }
+
+    void accept(byte[] buf, int off, int len) {
+        try (JsonParser p = FACTORY.createParser(buf, off, len)) {
+            parseLine(p);
+        } catch (IOException ignore) {
+            // Same as a failed readTree: the line contributes nothing
+        }
+    }
+
+    private void parseLine(JsonParser p) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) return;
+
+        String type = null;
+        Payload payload = null;
+        JsonToken t;
+        while ((t = p.nextToken()) == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken v = p.nextToken();
+            if ("type".equals(name)) {
+                type = text(p, v);
+            } else if ("payload".equals(name) && v == JsonToken.START_OBJECT && wants(type)) {
+                payload = readPayload(p, type);
+            } else {
+                p.skipChildren();
+            }
+        }
+        // Only whole objects count, a truncated tail line must not leak partial fields
+        if (t != JsonToken.END_OBJECT) return;
+
+        if (!gotMeta && "session_meta".equals(type)) {
+            gotMeta = true;
+            sessionId = payload != null ? payload.id : null;
+            time = payload != null ? payload.timestamp : null;
+            cwd = payload != null ? payload.cwd : null;
+            branch = payload != null ? payload.branch : null;
+            return;
+        }
+
+        if (firstUserMessage == null
+                && "response_item".equals(type)
+                && payload != null
+                && "message".equals(payload.type)
+                && "user".equals(payload.role)
+                && payload.text != null) {
+            firstUserMessage = TextPipeline.preview(payload.text);
+        }
+    }
+
+    // A null type means "payload came before type", so keep whatever might turn out useful
+    private boolean wants(String type) {
+        if (type == null) return !isDone();
+        if ("session_meta".equals(type)) return !gotMeta;
+        if ("response_item".equals(type)) return firstUserMessage == null;
+        return false;
+    }
+
+    private Payload readPayload(JsonParser p, String lineType) throws IOException {
+        Payload pl = new Payload();
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken v = p.nextToken();
+            switch (name) {
+                case "id":
+                    pl.id = text(p, v);
+                    break;
+                case "timestamp":
+                    pl.timestamp = text(p, v);
+                    break;
+                case "cwd":
+                    pl.cwd = text(p, v);
+                    break;
+                case "git":
+                    if (v == JsonToken.START_OBJECT) pl.branch = readBranch(p);
+                    else p.skipChildren();
+                    break;
+                case "type":
+                    pl.type = text(p, v);
+                    break;
+                case "role":
+                    pl.role = text(p, v);
+                    break;
+                case "content":
+                    if (v == JsonToken.START_ARRAY && wantsContent(lineType, pl)) pl.text = readFirstUsefulInputText(p);
+                    else p.skipChildren();
+                    break;
+                default:
+                    p.skipChildren();
+            }
+        }
+        return pl;
+    }
+
+    private static boolean wantsContent(String lineType, Payload pl) {
+        return (lineType == null || "response_item".equals(lineType))
+                && (pl.type == null || "message".equals(pl.type))
+                && (pl.role == null || "user".equals(pl.role));
+    }
+
+    private static String readBranch(JsonParser p) throws IOException {
+        String branch = null;
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.getCurrentName();
+            JsonToken v = p.nextToken();
+            if ("branch".equals(name)) branch = text(p, v);
+            else p.skipChildren();
+        }
+        return branch;
+    }
+
+    private static String readFirstUsefulInputText(JsonParser p) throws IOException {
+        String found = null;
+        JsonToken t;
+        while ((t = p.nextToken()) != JsonToken.END_ARRAY && t != null) {
+            if (found != null || t != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                continue;
+            }
+
+            String type = null, text = null;
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.getCurrentName();
+                JsonToken v = p.nextToken();
+                if ("type".equals(name)) {
+                    type = text(p, v);
+                } else if ("text".equals(name) && (type == null || "input_text".equals(type))) {
+                    text = text(p, v);
+                } else {
+                    p.skipChildren();
+                }
+            }
+            if ("input_text".equals(type) && CodexIndexGenerator.isUsefulMessage(text)) found = text;
+        }
+        return found;
+    }
+
+    // Mirrors JsonNode.asText(): scalars as text, null as null, containers as ""
+    private static String text(JsonParser p, JsonToken v) throws IOException {
+        if (v == JsonToken.VALUE_NULL) return null;
+        if (v == JsonToken.START_OBJECT || v == JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return "";
+        }
+        return p.getText();
+    }
+}
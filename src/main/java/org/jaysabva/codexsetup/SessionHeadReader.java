@@ -0,0 +1,119 @@
+package org.jaysabva.codexsetup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Bounded line splitter for the head of a session file.
+ * Reads raw bytes in chunks into a per-thread 64 KiB buffer, finds line boundaries without decoding
+ * and stops once a byte budget is spent, so files are never read past what the caller needs.
+ * Archived {@code .jsonl.gz} sessions are inflated while being read, so for them too only the
+ * head is decompressed (the budget counts decompressed bytes).
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+class SessionHeadReader {
+
+    static final long DEFAULT_HEAD_BYTES = 2L << 20;
+    static final String COMPRESSED_SUFFIX = ".gz";
+
+    private static final int CHUNK = 64 * 1024;
+    private static final ThreadLocal<byte[]> BUFFER = ThreadLocal.withInitial(() -> new byte[CHUNK]);
+
+    private static final Metrics.Counter BYTES_READ =
+            Metrics.counter("codex_index_bytes_read_total", "Session file bytes read by the indexer");
+
+    /** Open a session file, plain or gzip-compressed. */
+    static InputStream open(Path file) throws IOException {
+        InputStream in = Files.newInputStream(file);
+        if (!file.toString().endsWith(COMPRESSED_SUFFIX)) return in;
+        try {
+            return new GZIPInputStream(in, CHUNK);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    interface LineHandler {
+        /** Handle {@code buf[off, off + len)} without the line terminator; return false to stop reading. */
+        boolean onLine(byte[] buf, int off, int len);
+    }
+
+    /**
+     * Feed each line of {@code in} to {@code handler} until it asks to stop, the stream ends or
+     * {@code budget} bytes have been consumed. A line cut by the budget is dropped.
+     *
+     * @return true if reading stopped because the budget ran out before the end of the stream
+     */
+    static boolean readLines(InputStream in, long budget, LineHandler handler) throws IOException {
+        byte[] buf = BUFFER.get();
+        int start = 0, end = 0, scanned = 0;
+        long total = 0;
+
+        while (true) {
+            for (int i = scanned; i < end; i++) {
+                if (buf[i] != '\n') continue;
+                int len = i - start;
+                if (len > 0 && buf[i - 1] == '\r') len--;
+                if (!handler.onLine(buf, start, len)) {
+                    BYTES_READ.add(total);
+                    return false;
+                }
+                start = i + 1;
+            }
+            scanned = end;
+
+            if (total >= budget) {
+                BYTES_READ.add(total);
+                if (in.read() != -1) return true;
+                break;
+            }
+
+            // Keep the partial line, growing the buffer only when a single line outgrows it. A grown
+            // buffer serves this call only: the thread keeps its CHUNK, not the longest line it ever saw
+            if (start > 0) {
+                System.arraycopy(buf, start, buf, 0, end - start);
+                end -= start;
+                scanned = end;
+                start = 0;
+            } else if (end == buf.length) {
+                byte[] grown = new byte[(int) Math.min((long) buf.length * 2, Math.max(budget, buf.length + 1L))];
+                System.arraycopy(buf, 0, grown, 0, end);
+                buf = grown;
+            }
+
+            int n = in.read(buf, end, (int) Math.min(buf.length - end, budget - total));
+            if (n < 0) {
+                BYTES_READ.add(total);
+                break;
+            }
+            end += n;
+            total += n;
+        }
+
+        // Last line without a trailing newline
+        if (end > start) handler.onLine(buf, start, end - start);
+        return false;
+    }
+
+    /** Plain byte search; lines are tested for a marker before paying for a JSON parse. */
+    static boolean contains(byte[] buf, int off, int len, byte[] needle) {
+        int last = off + len - needle.length;
+        byte first = needle[0];
+        outer:
+        for (int i = off; i <= last; i++) {
+            if (buf[i] != first) continue;
+            for (int j = 1; j < needle.length; j++) {
+                if (buf[i + j] != needle[j]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,368 @@
+package org.jaysabva.codexsetup;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Resident session index: keeps the index in memory, follows ~/.codex/sessions with a
+ * {@link WatchService} and answers lookups over a Unix domain socket.
+ *
+ * Protocol: one request line per connection, the response is written and the socket closed.
+ * Connections are served concurrently, each closed after
+ * {@link LocalSockets#CONNECTION_DEADLINE_MILLIS}; a second daemon refuses to start while the
+ * socket answers {@code PING}.
+ * <pre>
+ * PING        → PONG
+ * INDEX       → the full index as JSON (same shape as codex_sessions_index.json)
+ * CWD &lt;cwd&gt;   → branch → sessions JSON for one cwd ({} when unknown)
+ * QUERY\t&lt;cwd&gt;\t&lt;branch&gt;\t&lt;page&gt;\t&lt;pageSize&gt;[\t&lt;sort&gt;] → one TSV page, see {@link SessionQuery}
+ * </pre>
+ * The on-disk manifest and index files are kept current, so the jq path keeps working. With
+ * {@code --analytics} the {@link SessionAnalytics} cache is refreshed on a background thread and
+ * the sort keys other than {@code time} answer from it.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+public class SessionIndexDaemon {
+
+    // Settle time after the last event, and the longest a busy session can delay a refresh
+    private static final long QUIET_MILLIS = 250;
+    private static final long MAX_DELAY_MILLIS = 2000;
+    // Transcript search merges rewrite the search index, so they run on a slower cadence
+    private static final long SEARCH_REFRESH_SECONDS = 60;
+    // Full transcript reads for the analytics sort keys; an active session changes them every turn
+    private static final long ANALYTICS_REFRESH_SECONDS = 30;
+    private static final long METRICS_WRITE_SECONDS = 15;
+
+    private final CodexIndexGenerator.Options opts;
+    private final Path manifestFile;
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> watchedDirs = new HashMap<>();
+
+    // Only touched by the watch loop thread
+    private SessionManifest manifest;
+    // Published snapshot for socket readers; INDEX and CWD are written from its columns
+    private volatile SessionStore store = SessionStore.of(new ArrayList<>());
+    // Latest manifest not yet folded into the search index, taken by the search refresher
+    private final AtomicReference<SessionManifest> pendingSearch = new AtomicReference<>();
+    // Same hand-off for the analytics refresher, and its latest result for socket readers
+    private final AtomicReference<SessionManifest> pendingAnalytics = new AtomicReference<>();
+    private volatile Map<String, SessionAnalytics.Stats> analytics = new HashMap<>();
+
+    SessionIndexDaemon(CodexIndexGenerator.Options opts) throws IOException {
+        this.opts = opts;
+        this.manifestFile = CodexIndexGenerator.manifestPath(opts);
+        this.watcher = FileSystems.getDefault().newWatchService();
+    }
+
+    public static void main(String[] args) throws IOException {
+        CodexIndexGenerator.Options opts = CodexIndexGenerator.Options.parse(args);
+        if (!Files.isDirectory(opts.sessionsRoot)) {
+            System.err.println("Sessions directory not found: " + opts.sessionsRoot);
+            System.exit(1);
+        }
+
+        if (opts.metricsFile != null) Metrics.startWriter(opts.metricsFile, METRICS_WRITE_SECONDS);
+
+        SessionIndexDaemon daemon = new SessionIndexDaemon(opts);
+        daemon.start();
+        daemon.watchLoop();
+    }
+
+    void start() throws IOException {
+        // Only a stale socket file may be replaced, never a running daemon's (checked before any index files are touched)
+        if (LocalSockets.inUse(opts.socket)) {
+            System.err.println("Session index daemon already running on: " + opts.socket.toAbsolutePath());
+            System.exit(1);
+        }
+        registerTree(opts.sessionsRoot);
+        rescan();
+
+        Files.deleteIfExists(opts.socket);
+        ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        server.bind(UnixDomainSocketAddress.of(opts.socket));
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                server.close();
+                Files.deleteIfExists(opts.socket);
+            } catch (IOException ignore) {
+            }
+        }));
+
+        Thread acceptor = new Thread(() -> serve(server), "session-index-socket");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        if (opts.searchIndex) {
+            ScheduledExecutorService searchRefresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "session-search-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+            searchRefresher.scheduleWithFixedDelay(this::refreshSearch, 0, SEARCH_REFRESH_SECONDS, TimeUnit.SECONDS);
+        }
+
+        if (opts.analytics) {
+            analytics = SessionAnalytics.load(SessionAnalytics.cachePath(opts)).byPath();
+            ScheduledExecutorService analyticsRefresher = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "session-analytics-refresh");
+                t.setDaemon(true);
+                return t;
+            });
+            analyticsRefresher.scheduleWithFixedDelay(this::refreshAnalytics, 0, ANALYTICS_REFRESH_SECONDS, TimeUnit.SECONDS);
+        }
+
+        System.out.println("✅ Session index daemon listening on: " + opts.socket.toAbsolutePath());
+    }
+
+    // ---------------------------------------------------------------- watching
+
+    void watchLoop() {
+        Set<Path> dirty = new LinkedHashSet<>();
+        boolean overflow = false;
+        long firstDirtyAt = 0;
+
+        while (true) {
+            WatchKey key;
+            try {
+                if (dirty.isEmpty() && !overflow) {
+                    key = watcher.take();
+                } else {
+                    long sinceFirst = System.currentTimeMillis() - firstDirtyAt;
+                    long wait = Math.min(QUIET_MILLIS, MAX_DELAY_MILLIS - sinceFirst);
+                    key = wait > 0 ? watcher.poll(wait, TimeUnit.MILLISECONDS) : null;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            if (key == null) {
+                if (overflow) rescan();
+                else apply(dirty);
+                dirty.clear();
+                overflow = false;
+                continue;
+            }
+
+            if (dirty.isEmpty() && !overflow) firstDirtyAt = System.currentTimeMillis();
+
+            Path dir = watchedDirs.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                    overflow = true;
+                    continue;
+                }
+                Path child = dir.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                        && Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+                    // Files can land before the new directory is registered, so pick them up by walking it
+                    try {
+                        dirty.addAll(registerTree(child));
+                    } catch (IOException e) {
+                        overflow = true;
+                    }
+                } else {
+                    dirty.add(child);
+                }
+            }
+            if (!key.reset()) watchedDirs.remove(key);
+        }
+    }
+
+    /** Register {@code root} and every directory below it; returns the session files found. */
+    private List<Path> registerTree(Path root) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watcher,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE);
+                watchedDirs.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path f, BasicFileAttributes attrs) {
+                if (CodexIndexGenerator.isSessionFile(f, attrs)) files.add(f);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path f, IOException e) {
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private void rescan() {
+        SessionManifest previous = manifest != null ? manifest : SessionManifest.load(manifestFile);
+        SessionManifest current = new SessionManifest();
+        CodexIndexGenerator.scanSessions(opts.sessionsRoot, previous, current, opts);
+        manifest = current;
+        publish();
+    }
+
+    /** Re-stat the touched paths and re-parse only the session files whose size or mtime moved. */
+    private void apply(Set<Path> paths) {
+        boolean changed = false;
+        List<Path> toParse = new ArrayList<>();
+        Map<Path, BasicFileAttributes> attrsByPath = new HashMap<>();
+
+        for (Path p : paths) {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(p, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException gone) {
+                changed |= manifest.remove(p);
+                changed |= manifest.removeTree(p);
+                continue;
+            }
+            if (!CodexIndexGenerator.isSessionFile(p, attrs) || manifest.isCurrent(p, attrs)) continue;
+            toParse.add(p);
+            attrsByPath.put(p, attrs);
+        }
+
+        List<CodexIndexGenerator.SessionInfo> parsed = CodexIndexGenerator.parseAll(toParse, opts);
+        for (int i = 0; i < toParse.size(); i++) {
+            Path p = toParse.get(i);
+            CodexIndexGenerator.SessionInfo info = parsed.get(i);
+            changed |= !Objects.equals(info, manifest.info(p));
+            // A file that could not be read loses its entry and is tried again on its next event
+            manifest.put(p, attrsByPath.get(p), info);
+        }
+
+        // Any size or mtime change means new transcript text, even when the head stays the same
+        if (opts.searchIndex && (changed || !toParse.isEmpty())) pendingSearch.set(manifest.copy());
+        if (opts.analytics && (changed || !toParse.isEmpty())) pendingAnalytics.set(manifest.copy());
+
+        // An active session appends constantly; only a different head is worth new index files
+        if (changed) publish();
+    }
+
+    private void refreshSearch() {
+        SessionManifest snapshot = pendingSearch.getAndSet(null);
+        if (snapshot == null) return;
+        try {
+            TranscriptSearchIndex.update(TranscriptSearchIndex.indexPath(opts), snapshot, opts);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed updating search index: " + e.getMessage());
+        }
+    }
+
+    private void refreshAnalytics() {
+        SessionManifest snapshot = pendingAnalytics.getAndSet(null);
+        if (snapshot == null) return;
+        try {
+            analytics = SessionAnalytics.refresh(SessionAnalytics.cachePath(opts), snapshot.sessionPaths(), opts.parallelism).byPath();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed updating session analytics: " + e.getMessage());
+        }
+    }
+
+    private void publish() {
+        if (opts.searchIndex) pendingSearch.set(manifest.copy());
+        if (opts.analytics) pendingAnalytics.set(manifest.copy());
+        // The full history, whatever window the daemon walks; queries window it themselves
+        store = CodexIndexGenerator.groupSessions(manifest);
+        try {
+            manifest.save(manifestFile);
+        } catch (IOException e) {
+            System.err.println("Failed writing manifest: " + e.getMessage());
+        }
+        CodexIndexGenerator.writeIndexes(store, opts, false);
+    }
+
+    // ---------------------------------------------------------------- socket
+
+    // One idle or slow client only ever holds its own connection, and only until its deadline
+    private void serve(ServerSocketChannel server) {
+        ExecutorService connections = LocalSockets.connectionPool("session-index-connection");
+        while (server.isOpen()) {
+            try {
+                LocalSockets.serve(connections, server.accept(), this::handle);
+            } catch (IOException e) {
+                if (server.isOpen()) System.err.println("Socket error: " + e.getMessage());
+            }
+        }
+    }
+
+    private static int parseIntOr(String s, int fallback) {
+        try { return Integer.parseInt(s.trim()); } catch (NumberFormatException e) { return fallback; }
+    }
+
+    private void handle(SocketChannel client) throws IOException {
+        BufferedReader in = new BufferedReader(new InputStreamReader(Channels.newInputStream(client), StandardCharsets.UTF_8));
+        OutputStream out = Channels.newOutputStream(client);
+        String request = in.readLine();
+        if (request == null) return;
+
+        SessionStore snapshot = store;
+        String response;
+        if (request.equals("PING")) {
+            response = "PONG";
+        } else if (request.equals("INDEX") || request.startsWith("CWD ")) {
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+            if (request.equals("INDEX")) snapshot.writeJson(json, false);
+            else snapshot.writeJson(json, request.substring(4));
+            json.write('\n');
+            json.writeTo(out);
+            out.flush();
+            return;
+        } else if (request.startsWith("QUERY\t")) {
+            String[] parts = request.split("\t", -1);
+            SessionQuery.Request req = new SessionQuery.Request();
+            req.cwd = parts[1];
+            req.branch = parts.length > 2 ? parts[2] : "";
+            req.page = parts.length > 3 ? parseIntOr(parts[3], 0) : 0;
+            req.pageSize = parts.length > 4 ? parseIntOr(parts[4], 10) : 10;
+            req.sort = parts.length > 5 && SessionAnalytics.SORT_KEYS.contains(parts[5]) ? parts[5] : "time";
+            if (req.byAnalytics()) req.analytics = analytics;
+            response = SessionQuery.page(snapshot.entries(req.cwd), req);
+            // page() already ends with a newline
+            response = response.substring(0, response.length() - 1);
+        } else {
+            response = "ERR unknown request";
+        }
+        out.write((response + "\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+}
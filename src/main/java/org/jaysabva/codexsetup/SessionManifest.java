@@ -0,0 +1,398 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Persisted per-file parse cache for the session indexer.
+ * Keyed by session file path, holding the size and mtime seen at parse time
+ * together with the parsed session. A file that could not be read (permissions, a transient I/O
+ * error) is not recorded, so the next run tries it again: a chmod changes neither size nor mtime.
+ * What a parse finds depends on the head-byte budget it ran with, so that is recorded too and a
+ * different budget starts over.
+ *
+ * In memory this is the resident model of the indexer and the daemon, kept in columns rather than
+ * one {@link CodexIndexGenerator.SessionInfo} per file: cwd and branch are ids into a shared
+ * dictionary, timestamps are parsed once into epoch millis, and time, session id and first user
+ * message are UTF-8 bytes. The transcript path is the key itself. A {@code SessionInfo} is only
+ * built where one leaves the process: the JSON written by {@link #save}, or {@link #info}.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+class SessionManifest {
+
+    // Bump whenever parsing semantics change so stale caches are dropped
+    // 2: heads are read within a byte budget, recorded in headBytes
+    // 3: files that failed to parse are recorded, with a null info
+    // 4: read failures are no longer recorded, so version 3's are dropped and retried
+    static final int VERSION = 4;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private static final int INITIAL_SLOTS = 64;
+
+    // --head-bytes of the run that parsed these entries
+    long headBytes = SessionHeadReader.DEFAULT_HEAD_BYTES;
+
+    // Path → slot in the columns below; slots of removed files are reused
+    private final Map<String, Integer> slots;
+    private int[] free;
+    private int freeCount;
+    private int used;
+
+    // One slot per file; -1 dictionary ids stand for null fields
+    private String[] paths;
+    private long[] sizes;
+    private long[] mtimes;
+    private int[] cwdIds;
+    private int[] branchIds;
+    private long[] epochMillis;
+    private byte[][] times;
+    private byte[][] sessionIds;
+    private byte[][] messages;
+
+    // Distinct cwds and branches, a handful shared by thousands of sessions
+    private final List<String> names;
+    private final Map<String, Integer> nameIds;
+
+    /** On-disk form of one entry, read and written one at a time. */
+    static class Entry {
+        public long size;
+        public long mtime;
+        public CodexIndexGenerator.SessionInfo info;
+    }
+
+    SessionManifest() {
+        this(INITIAL_SLOTS);
+    }
+
+    private SessionManifest(int capacity) {
+        slots = new HashMap<>(capacity * 2);
+        names = new ArrayList<>();
+        nameIds = new HashMap<>();
+        free = new int[0];
+        grow(capacity);
+    }
+
+    /** Entries are streamed into the columns; the whole file never exists as objects at once. */
+    static SessionManifest load(Path file) {
+        if (!Files.isRegularFile(file)) return new SessionManifest();
+        try (JsonParser p = MAPPER.getFactory().createParser(file.toFile())) {
+            SessionManifest manifest = new SessionManifest();
+            int version = -1;
+            boolean sawEntries = false;
+            if (p.nextToken() != JsonToken.START_OBJECT) throw new IOException("not a JSON object");
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String field = p.currentName();
+                JsonToken value = p.nextToken();
+                if ("version".equals(field)) {
+                    version = p.getValueAsInt(-1);
+                } else if ("headBytes".equals(field)) {
+                    manifest.headBytes = p.getValueAsLong();
+                } else if ("entries".equals(field) && value == JsonToken.START_OBJECT) {
+                    sawEntries = true;
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String path = p.currentName();
+                        p.nextToken();
+                        Entry e = p.readValueAs(Entry.class);
+                        if (e.info != null) manifest.put(path, e.size, e.mtime, e.info);
+                    }
+                } else {
+                    p.skipChildren();
+                }
+            }
+            if (version != VERSION || !sawEntries) return new SessionManifest();
+            return manifest;
+        } catch (IOException | RuntimeException e) {
+            // Corrupt or partial manifest: fall back to a full re-parse
+            System.err.println("Ignoring unreadable manifest " + file + ": " + e.getMessage());
+            return new SessionManifest();
+        }
+    }
+
+    /** This cache when its entries were parsed with {@code budget} head bytes, otherwise an empty one. */
+    SessionManifest parsedWith(long budget) {
+        if (headBytes == budget) return this;
+        SessionManifest empty = new SessionManifest();
+        empty.headBytes = budget;
+        return empty;
+    }
+
+    /** Number of sessions recorded. */
+    int size() {
+        return slots.size();
+    }
+
+    boolean isEmpty() {
+        return slots.isEmpty();
+    }
+
+    /** Whether {@code file} is recorded as it is now (same size and mtime). */
+    boolean isCurrent(Path file, BasicFileAttributes attrs) {
+        Integer slot = slots.get(file.toString());
+        return slot != null && sizes[slot] == attrs.size() && mtimes[slot] == attrs.lastModifiedTime().toMillis();
+    }
+
+    /** Record {@code file}'s session; a null info (the file could not be read) drops its entry instead. */
+    void put(Path file, BasicFileAttributes attrs, CodexIndexGenerator.SessionInfo info) {
+        if (info == null) remove(file);
+        else put(file.toString(), attrs.size(), attrs.lastModifiedTime().toMillis(), info);
+    }
+
+    /** Copy {@code path}'s entry over from {@code from}, columns as they are. */
+    void carry(SessionManifest from, String path) {
+        Integer src = from.slots.get(path);
+        if (src == null) return;
+        int slot = slotFor(path);
+        sizes[slot] = from.sizes[src];
+        mtimes[slot] = from.mtimes[src];
+        cwdIds[slot] = from.cwdIds[src] < 0 ? -1 : nameId(from.names.get(from.cwdIds[src]));
+        branchIds[slot] = from.branchIds[src] < 0 ? -1 : nameId(from.names.get(from.branchIds[src]));
+        epochMillis[slot] = from.epochMillis[src];
+        times[slot] = from.times[src];
+        sessionIds[slot] = from.sessionIds[src];
+        messages[slot] = from.messages[src];
+    }
+
+    /** Whether {@code file} was recorded. */
+    boolean remove(Path file) {
+        Integer slot = slots.remove(file.toString());
+        if (slot == null) return false;
+        recycle(slot);
+        return true;
+    }
+
+    /** Drop every entry at or below {@code dir}; used when a whole directory disappears. */
+    boolean removeTree(Path dir) {
+        String prefix = dir.toString() + dir.getFileSystem().getSeparator();
+        boolean removed = false;
+        for (var it = slots.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Integer> e = it.next();
+            if (!e.getKey().equals(dir.toString()) && !e.getKey().startsWith(prefix)) continue;
+            it.remove();
+            recycle(e.getValue());
+            removed = true;
+        }
+        return removed;
+    }
+
+    /** Copy safe to hand to another thread while this one keeps changing; the byte arrays are shared, never written. */
+    SessionManifest copy() {
+        SessionManifest m = new SessionManifest(0);
+        m.headBytes = headBytes;
+        m.slots.putAll(slots);
+        m.free = Arrays.copyOf(free, free.length);
+        m.freeCount = freeCount;
+        m.used = used;
+        m.paths = paths.clone();
+        m.sizes = sizes.clone();
+        m.mtimes = mtimes.clone();
+        m.cwdIds = cwdIds.clone();
+        m.branchIds = branchIds.clone();
+        m.epochMillis = epochMillis.clone();
+        m.times = times.clone();
+        m.sessionIds = sessionIds.clone();
+        m.messages = messages.clone();
+        m.names.addAll(names);
+        m.nameIds.putAll(nameIds);
+        return m;
+    }
+
+    /** Every recorded path, sorted. */
+    List<String> paths() {
+        List<String> out = new ArrayList<>(slots.keySet());
+        out.sort(null);
+        return out;
+    }
+
+    /** Paths of the recorded sessions. */
+    Set<String> sessionPaths() {
+        return new HashSet<>(slots.keySet());
+    }
+
+    /** The recorded session of {@code file}, or null when it is unknown. */
+    CodexIndexGenerator.SessionInfo info(Path file) {
+        Integer slot = slots.get(file.toString());
+        return slot == null ? null : info(slot);
+    }
+
+    /** Every session, grouped by cwd and branch; input order (ties) is path order, as the index has always been. */
+    SessionStore store() {
+        List<String> sorted = paths();
+        int n = sorted.size();
+        int[] fileIds = new int[n];
+        int[] branches = new int[n];
+        long[] millis = new long[n];
+        byte[][] timeBytes = new byte[n][];
+        byte[][] ids = new byte[n][];
+        byte[][] msgs = new byte[n][];
+        String[] files = new String[n];
+        for (int i = 0; i < n; i++) {
+            int slot = slots.get(sorted.get(i));
+            fileIds[i] = cwdIds[slot];
+            branches[i] = branchIds[slot];
+            millis[i] = epochMillis[slot];
+            timeBytes[i] = times[slot];
+            ids[i] = sessionIds[slot];
+            msgs[i] = messages[slot];
+            files[i] = paths[slot];
+        }
+        return new SessionStore(names.toArray(new String[0]), fileIds, branches, millis, timeBytes, ids, msgs, files);
+    }
+
+    // ---------------------------------------------------------------- row access, by slot
+
+    /** Slot of {@code path}, or -1 when it is not recorded. */
+    int slot(String path) {
+        Integer slot = slots.get(path);
+        return slot == null ? -1 : slot;
+    }
+
+    long fileSize(int slot) {
+        return sizes[slot];
+    }
+
+    long mtime(int slot) {
+        return mtimes[slot];
+    }
+
+    String cwd(int slot) {
+        return cwdIds[slot] < 0 ? null : names.get(cwdIds[slot]);
+    }
+
+    String branch(int slot) {
+        return branchIds[slot] < 0 ? null : names.get(branchIds[slot]);
+    }
+
+    String time(int slot) {
+        return decode(times[slot]);
+    }
+
+    String sessionId(int slot) {
+        return decode(sessionIds[slot]);
+    }
+
+    long epochMillis(int slot) {
+        return epochMillis[slot];
+    }
+
+    void save(Path file) throws IOException {
+        AtomicFiles.write(file, out -> {
+            try (JsonGenerator g = MAPPER.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+                g.writeStartObject();
+                g.writeNumberField("version", VERSION);
+                g.writeNumberField("headBytes", headBytes);
+                g.writeObjectFieldStart("entries");
+                for (Map.Entry<String, Integer> e : slots.entrySet()) {
+                    int slot = e.getValue();
+                    g.writeObjectFieldStart(e.getKey());
+                    g.writeNumberField("size", sizes[slot]);
+                    g.writeNumberField("mtime", mtimes[slot]);
+                    g.writeObjectField("info", info(slot));
+                    g.writeEndObject();
+                }
+                g.writeEndObject();
+                g.writeEndObject();
+            }
+        });
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                      Private Methods                                                           *//
+    //**********************************************************************************************************************************//
+
+    private void put(String path, long size, long mtime, CodexIndexGenerator.SessionInfo info) {
+        int slot = slotFor(path);
+        sizes[slot] = size;
+        mtimes[slot] = mtime;
+        cwdIds[slot] = info.file == null ? -1 : nameId(info.file);
+        branchIds[slot] = info.branch == null ? -1 : nameId(info.branch);
+        epochMillis[slot] = BinarySessionIndex.epochMillis(info.time);
+        times[slot] = encode(info.time);
+        sessionIds[slot] = encode(info.sessionId);
+        messages[slot] = encode(info.firstUserMessage);
+    }
+
+    private CodexIndexGenerator.SessionInfo info(int slot) {
+        CodexIndexGenerator.SessionInfo s = new CodexIndexGenerator.SessionInfo();
+        s.firstUserMessage = decode(messages[slot]);
+        s.branch = branch(slot);
+        s.time = decode(times[slot]);
+        s.sessionId = decode(sessionIds[slot]);
+        s.file = cwd(slot);
+        s.jsonlFilePath = paths[slot];
+        return s;
+    }
+
+    // The slot already holding path, else a free one
+    private int slotFor(String path) {
+        Integer slot = slots.get(path);
+        if (slot != null) return slot;
+        int s = freeCount > 0 ? free[--freeCount] : used++;
+        if (s == paths.length) grow(paths.length * 2);
+        paths[s] = path;
+        slots.put(path, s);
+        return s;
+    }
+
+    // A slot whose path was just unmapped goes back to the free list, its references cleared
+    private void recycle(int slot) {
+        paths[slot] = null;
+        times[slot] = null;
+        sessionIds[slot] = null;
+        messages[slot] = null;
+        if (freeCount == free.length) free = Arrays.copyOf(free, Math.max(16, free.length * 2));
+        free[freeCount++] = slot;
+    }
+
+    private void grow(int capacity) {
+        capacity = Math.max(capacity, INITIAL_SLOTS);
+        paths = paths == null ? new String[capacity] : Arrays.copyOf(paths, capacity);
+        sizes = sizes == null ? new long[capacity] : Arrays.copyOf(sizes, capacity);
+        mtimes = mtimes == null ? new long[capacity] : Arrays.copyOf(mtimes, capacity);
+        cwdIds = cwdIds == null ? new int[capacity] : Arrays.copyOf(cwdIds, capacity);
+        branchIds = branchIds == null ? new int[capacity] : Arrays.copyOf(branchIds, capacity);
+        epochMillis = epochMillis == null ? new long[capacity] : Arrays.copyOf(epochMillis, capacity);
+        times = times == null ? new byte[capacity][] : Arrays.copyOf(times, capacity);
+        sessionIds = sessionIds == null ? new byte[capacity][] : Arrays.copyOf(sessionIds, capacity);
+        messages = messages == null ? new byte[capacity][] : Arrays.copyOf(messages, capacity);
+    }
+
+    private int nameId(String name) {
+        Integer id = nameIds.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            nameIds.put(name, id);
+        }
+        return id;
+    }
+
+    private static byte[] encode(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String decode(byte[] b) {
+        return b == null ? null : new String(b, StandardCharsets.UTF_8);
+    }
+}
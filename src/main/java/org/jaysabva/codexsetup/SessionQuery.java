@@ -0,0 +1,198 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * One page of the session picker for a cwd, rendered as TSV so the shell script needs a single
+ * call per page instead of several jq passes over the whole index.
+ *
+ * Output: a header line {@code count<TAB>totalPages<TAB>page}, then one line per session
+ * {@code branch<TAB>time<TAB>sessionId<TAB>jsonlFilePath<TAB>firstUserMessage}, newest first
+ * (ordered on timestamps parsed once per entry, never inside the comparator).
+ *
+ * {@code --sort turns|duration|tokens|tools} orders by the cached {@link SessionAnalytics} instead
+ * (user turns, wall-clock span, total tokens, tool calls; largest first, sessions not analysed yet
+ * last) and appends {@code <TAB>userTurns<TAB>assistantTurns<TAB>toolCalls<TAB>durationSeconds<TAB>totalTokens}
+ * to each line, "-" where unknown. Without {@code --cwd} it ranks every cwd's sessions, and
+ * {@code --days}/{@code --since}/{@code --until} limit it to a window, e.g. the most expensive
+ * sessions this week: {@code --query --sort tokens --days 7}.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+class SessionQuery {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Metrics.Timer PHASE_QUERY = CodexIndexGenerator.phase("query");
+
+    static class Request {
+        String cwd;
+        String branch = "";
+        int page;
+        int pageSize = 10;
+        String sort = "time";
+        long sinceMillis = Long.MIN_VALUE;
+        long untilMillis = Long.MAX_VALUE;
+        // Transcript path → aggregates; only needed for the analytics sort keys
+        Map<String, SessionAnalytics.Stats> analytics = new HashMap<>();
+
+        boolean byAnalytics() {
+            return !"time".equals(sort);
+        }
+    }
+
+    /** CLI entry: answer from the cwd's shard, else the binary index when current, else the JSON index. */
+    static void run(CodexIndexGenerator.Options opts) {
+        Request req = opts.queryRequest();
+        if (!SessionAnalytics.SORT_KEYS.contains(req.sort) || (opts.queryCwd == null && !req.byAnalytics())) {
+            System.err.println("Usage: --query --cwd <dir> [--branch <name>] [--page <n>] [--page-size <n>]"
+                    + " [--sort time|turns|duration|tokens|tools] [--days <n>]");
+            System.exit(2);
+        }
+        long start = System.nanoTime();
+        try {
+            List<BinarySessionIndex.SessionEntry> entries = opts.queryCwd == null
+                    ? loadAll(opts.output) : load(opts.output, opts.queryCwd);
+            if (req.byAnalytics()) req.analytics = SessionAnalytics.load(SessionAnalytics.cachePath(opts)).byPath();
+            String page = page(entries, req);
+            PHASE_QUERY.since(start);
+            System.out.print(page);
+        } catch (IOException e) {
+            System.err.println("Failed reading index: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    static List<BinarySessionIndex.SessionEntry> load(Path jsonIndex, String cwd) throws IOException {
+        Path shards = SessionShards.dirPath(jsonIndex);
+        if (SessionShards.isCurrent(shards, jsonIndex)) {
+            return entries(SessionShards.read(shards, cwd));
+        }
+
+        Path binary = CodexIndexGenerator.binaryIndexPath(jsonIndex);
+        if (Files.isRegularFile(binary) && (!Files.exists(jsonIndex)
+                || Files.getLastModifiedTime(binary).compareTo(Files.getLastModifiedTime(jsonIndex)) >= 0)) {
+            return BinarySessionIndex.open(binary).sessionsFor(cwd);
+        }
+
+        Map<String, List<CodexIndexGenerator.SessionInfo>> byBranch = readIndex(jsonIndex).get(cwd);
+        return byBranch == null ? new ArrayList<>() : entries(byBranch);
+    }
+
+    /** Every cwd's sessions, from the JSON index. */
+    static List<BinarySessionIndex.SessionEntry> loadAll(Path jsonIndex) throws IOException {
+        List<BinarySessionIndex.SessionEntry> out = new ArrayList<>();
+        for (Map<String, List<CodexIndexGenerator.SessionInfo>> byBranch : readIndex(jsonIndex).values()) {
+            out.addAll(entries(byBranch));
+        }
+        return out;
+    }
+
+    /** Flatten one cwd's branch map, parsing each timestamp once up front. */
+    static List<BinarySessionIndex.SessionEntry> entries(Map<String, List<CodexIndexGenerator.SessionInfo>> byBranch) {
+        List<BinarySessionIndex.SessionEntry> out = new ArrayList<>();
+        for (Map.Entry<String, List<CodexIndexGenerator.SessionInfo>> e : byBranch.entrySet()) {
+            for (CodexIndexGenerator.SessionInfo s : e.getValue()) {
+                out.add(new BinarySessionIndex.SessionEntry(e.getKey(), BinarySessionIndex.epochMillis(s.time), s));
+            }
+        }
+        return out;
+    }
+
+    static String page(List<BinarySessionIndex.SessionEntry> entries, Request req) {
+        String branch = req.branch == null ? "" : req.branch.toLowerCase(Locale.ROOT);
+
+        List<BinarySessionIndex.SessionEntry> matches = new ArrayList<>();
+        for (BinarySessionIndex.SessionEntry e : entries) {
+            if (e.info.sessionId == null || e.info.sessionId.isEmpty()) continue;
+            if (!branch.isEmpty() && (e.branch == null || !e.branch.toLowerCase(Locale.ROOT).equals(branch))) continue;
+            // A session without a readable time (epoch 0) cannot be placed, so no window drops it
+            if (e.epochMillis != 0 && (e.epochMillis < req.sinceMillis || e.epochMillis >= req.untilMillis)) continue;
+            matches.add(e);
+        }
+        Comparator<BinarySessionIndex.SessionEntry> newestFirst =
+                Comparator.comparingLong((BinarySessionIndex.SessionEntry e) -> e.epochMillis).reversed();
+        if (req.byAnalytics()) {
+            // Keys looked up once per entry; -1 puts sessions without aggregates after every analysed one
+            Map<BinarySessionIndex.SessionEntry, Long> keys = new IdentityHashMap<>(matches.size());
+            for (BinarySessionIndex.SessionEntry e : matches) keys.put(e, sortKey(req.analytics.get(e.info.jsonlFilePath), req.sort));
+            matches.sort(Comparator.comparingLong((BinarySessionIndex.SessionEntry e) -> keys.get(e)).reversed().thenComparing(newestFirst));
+        } else {
+            matches.sort(newestFirst);
+        }
+
+        int pageSize = Math.max(1, req.pageSize);
+        int totalPages = Math.max(1, (matches.size() + pageSize - 1) / pageSize);
+        int page = Math.min(Math.max(0, req.page), totalPages - 1);
+
+        StringBuilder sb = new StringBuilder();
+        sb.append(matches.size()).append('\t').append(totalPages).append('\t').append(page).append('\n');
+        for (int i = page * pageSize; i < Math.min(matches.size(), (page + 1) * pageSize); i++) {
+            BinarySessionIndex.SessionEntry e = matches.get(i);
+            sb.append(field(e.branch)).append('\t')
+                    .append(field(e.info.time)).append('\t')
+                    .append(field(e.info.sessionId)).append('\t')
+                    .append(field(e.info.jsonlFilePath)).append('\t')
+                    .append(field(e.info.firstUserMessage));
+            if (req.byAnalytics()) appendStats(sb, req.analytics.get(e.info.jsonlFilePath));
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                      Private Methods                                                           *//
+    //**********************************************************************************************************************************//
+
+    private static Map<String, Map<String, List<CodexIndexGenerator.SessionInfo>>> readIndex(Path jsonIndex) throws IOException {
+        return MAPPER.readValue(jsonIndex.toFile(),
+                new TypeReference<Map<String, Map<String, List<CodexIndexGenerator.SessionInfo>>>>() { });
+    }
+
+    private static long sortKey(SessionAnalytics.Stats s, String sort) {
+        if (s == null) return -1;
+        switch (sort) {
+            case "turns":
+                return s.userTurns;
+            case "duration":
+                return s.durationMillis();
+            case "tokens":
+                return s.totalTokens == null ? -1 : s.totalTokens;
+            case "tools":
+                return s.toolCalls;
+            default:
+                return -1;
+        }
+    }
+
+    private static void appendStats(StringBuilder sb, SessionAnalytics.Stats s) {
+        if (s == null) {
+            sb.append("\t-\t-\t-\t-\t-");
+            return;
+        }
+        sb.append('\t').append(s.userTurns)
+                .append('\t').append(s.assistantTurns)
+                .append('\t').append(s.toolCalls)
+                .append('\t').append(s.durationMillis() / 1000)
+                .append('\t').append(s.totalTokens == null ? "-" : s.totalTokens.toString());
+    }
+
+    // Empty fields would collapse under the shell's IFS=$'\t' read, so they go out as "-"
+    private static String field(String s) {
+        if (s == null || s.isEmpty()) return "-";
+        return s.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
@@ -0,0 +1,161 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Per-cwd shards of the session index, so the picker loads one project's history instead of the
+ * whole machine's. Next to {@code codex_sessions_index.json} sits {@code codex_sessions_index.shards/}
+ * holding one {@code <hash>.json} per cwd (the cwd's branch → sessions map, as in the full index)
+ * and {@code directory.json} mapping each cwd to its shard.
+ *
+ * Shard names are the first 16 hex digits of the SHA-256 of the cwd, so a reader finds its shard
+ * without the directory. Each directory entry carries a fingerprint of the shard's sessions; a
+ * shard is rewritten only when that changes, and shards of cwds that are gone are deleted.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+class SessionShards {
+
+    static final String DIRECTORY_FILE = "directory.json";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<Map<String, List<CodexIndexGenerator.SessionInfo>>> SHARD_TYPE = new TypeReference<>() { };
+
+    private static final Metrics.Counter SHARDS_WRITTEN = Metrics.counter("codex_index_shards_total",
+            "Per-cwd shards by what the last index write did with them", "result", "written");
+    private static final Metrics.Counter SHARDS_UNCHANGED = Metrics.counter("codex_index_shards_total",
+            "Per-cwd shards by what the last index write did with them", "result", "unchanged");
+    private static final Metrics.Counter SHARDS_DELETED = Metrics.counter("codex_index_shards_total",
+            "Per-cwd shards by what the last index write did with them", "result", "deleted");
+
+    public static class Directory {
+        public int version = 1;
+        public Map<String, Shard> shards = new TreeMap<>();
+    }
+
+    public static class Shard {
+        public String file;
+        public int sessions;
+        public String fingerprint;
+    }
+
+    /** codex_sessions_index.json → codex_sessions_index.shards, next to the JSON index. */
+    static Path dirPath(Path jsonOutput) {
+        String name = jsonOutput.getFileName().toString();
+        String base = name.endsWith(".json") ? name.substring(0, name.length() - ".json".length()) : name;
+        return jsonOutput.resolveSibling(base + ".shards");
+    }
+
+    static String shardFile(String cwd) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(cwd.getBytes(StandardCharsets.UTF_8));
+            StringBuilder sb = new StringBuilder(21);
+            for (int i = 0; i < 8; i++) sb.append(String.format("%02x", digest[i]));
+            return sb.append(".json").toString();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Bring the shards under {@code dir} in line with {@code grouped}. The directory file is always
+     * rewritten, so its mtime says the shards match the JSON index written just before.
+     */
+    static void write(Path dir, Map<String, Map<String, List<CodexIndexGenerator.SessionInfo>>> grouped) throws IOException {
+        Files.createDirectories(dir);
+        Directory previous = readDirectory(dir);
+        Directory current = new Directory();
+
+        for (Map.Entry<String, Map<String, List<CodexIndexGenerator.SessionInfo>>> e : grouped.entrySet()) {
+            Shard shard = new Shard();
+            shard.file = shardFile(e.getKey());
+            shard.fingerprint = fingerprint(e.getValue());
+            for (List<CodexIndexGenerator.SessionInfo> sessions : e.getValue().values()) shard.sessions += sessions.size();
+            current.shards.put(e.getKey(), shard);
+
+            Shard old = previous == null ? null : previous.shards.get(e.getKey());
+            if (old != null && shard.fingerprint.equals(old.fingerprint) && Files.isRegularFile(dir.resolve(shard.file))) {
+                SHARDS_UNCHANGED.inc();
+                continue;
+            }
+            AtomicFiles.write(dir.resolve(shard.file), MAPPER.writeValueAsBytes(e.getValue()));
+            SHARDS_WRITTEN.inc();
+        }
+
+        if (previous != null) {
+            for (Map.Entry<String, Shard> e : previous.shards.entrySet()) {
+                if (current.shards.containsKey(e.getKey()) || e.getValue().file == null) continue;
+                if (Files.deleteIfExists(dir.resolve(e.getValue().file))) SHARDS_DELETED.inc();
+            }
+        }
+        AtomicFiles.write(dir.resolve(DIRECTORY_FILE), MAPPER.writeValueAsBytes(current));
+    }
+
+    /** True when the shards were written with (or after) {@code jsonIndex}. */
+    static boolean isCurrent(Path dir, Path jsonIndex) throws IOException {
+        Path directory = dir.resolve(DIRECTORY_FILE);
+        return Files.isRegularFile(directory) && (!Files.exists(jsonIndex)
+                || Files.getLastModifiedTime(directory).compareTo(Files.getLastModifiedTime(jsonIndex)) >= 0);
+    }
+
+    /** One cwd's branch → sessions map, read from its shard alone; empty when it has none. */
+    static Map<String, List<CodexIndexGenerator.SessionInfo>> read(Path dir, String cwd) throws IOException {
+        Path file = dir.resolve(shardFile(cwd));
+        if (!Files.isRegularFile(file)) return new TreeMap<>();
+        return MAPPER.readValue(file.toFile(), SHARD_TYPE);
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                      Private Methods                                                           *//
+    //**********************************************************************************************************************************//
+
+    private static Directory readDirectory(Path dir) {
+        Path file = dir.resolve(DIRECTORY_FILE);
+        if (!Files.isRegularFile(file)) return null;
+        try {
+            return MAPPER.readValue(file.toFile(), Directory.class);
+        } catch (IOException e) {
+            // Unreadable directory: every shard is rewritten
+            System.err.println("Ignoring shard directory " + file + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // 64-bit FNV-1a over every field of every session, in index order
+    private static String fingerprint(Map<String, List<CodexIndexGenerator.SessionInfo>> byBranch) {
+        long h = 0xcbf29ce484222325L;
+        for (Map.Entry<String, List<CodexIndexGenerator.SessionInfo>> e : byBranch.entrySet()) {
+            h = mix(h, e.getKey());
+            for (CodexIndexGenerator.SessionInfo s : e.getValue()) {
+                h = mix(h, s.firstUserMessage);
+                h = mix(h, s.branch);
+                h = mix(h, s.time);
+                h = mix(h, s.sessionId);
+                h = mix(h, s.file);
+                h = mix(h, s.jsonlFilePath);
+            }
+        }
+        return Long.toHexString(h);
+    }
+
+    private static long mix(long h, String s) {
+        if (s == null) return (h ^ 0x1ffff) * 0x100000001b3L;
+        for (int i = 0; i < s.length(); i++) h = (h ^ s.charAt(i)) * 0x100000001b3L;
+        // Field separator outside the char range, so ("ab", "c") and ("a", "bc") differ
+        return (h ^ 0x10000) * 0x100000001b3L;
+    }
+}
@@ -0,0 +1,331 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Columnar in-memory form of the session index. cwd and branch are ids into two sorted
+ * dictionaries, timestamps are parsed once into a {@code long[]} of epoch millis, and time,
+ * session id and first user message are kept as UTF-8 bytes, shared with the
+ * {@link SessionManifest} the store was built from. They are decoded only when a row is turned
+ * back into a {@link CodexIndexGenerator.SessionInfo}; {@link #writeJson} skips even that and
+ * copies the bytes straight into the JSON.
+ *
+ * Index order (cwd, then branch, then newest first, ties in input order) is computed once on
+ * primitive keys: a stable merge sort on the millis, then stable counting sorts on the branch and
+ * cwd ids. Because the dictionaries are sorted, id order is the order of the TreeMaps the index
+ * has always been written from, so {@link #grouped()} produces the familiar cwd → branch → sessions
+ * shape unchanged, on demand.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+final class SessionStore {
+
+    static final String NO_CWD = "(no-cwd)";
+    static final String NO_BRANCH = "(no-branch)";
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    // Sorted, so id order is key order
+    private final String[] cwds;
+    private final String[] branches;
+    // cwd and branch values as recorded, null fields aside
+    private final String[] names;
+
+    // One slot per session, in input order; -1 ids (into names) stand for null fields
+    private final int[] fileIds;
+    private final int[] branchIds;
+    private final int[] cwdKeys;
+    private final int[] branchKeys;
+    private final long[] epochMillis;
+    private final byte[][] times;
+    private final byte[][] sessionIds;
+    private final String[] paths;
+    private final byte[][] messages;
+
+    // Slots in index order, and each cwd id's range [cwdStart[c], cwdStart[c + 1]) of it
+    private final int[] order;
+    private final int[] cwdStart;
+
+    /**
+     * One slot per session in input order: {@code fileIds} and {@code branchIds} index {@code names}
+     * (-1 for null), the byte columns are UTF-8 and taken as they are, never written.
+     */
+    SessionStore(String[] names, int[] fileIds, int[] branchIds, long[] epochMillis,
+                 byte[][] times, byte[][] sessionIds, byte[][] messages, String[] paths) {
+        int n = fileIds.length;
+        this.names = names;
+        this.fileIds = fileIds;
+        this.branchIds = branchIds;
+        this.epochMillis = epochMillis;
+        this.times = times;
+        this.sessionIds = sessionIds;
+        this.messages = messages;
+        this.paths = paths;
+
+        // Keys per name id, so rows are mapped without hashing a string each
+        TreeSet<String> cwdNames = new TreeSet<>();
+        TreeSet<String> branchNames = new TreeSet<>();
+        for (int i = 0; i < n; i++) {
+            cwdNames.add(cwdKey(name(fileIds[i])));
+            branchNames.add(branchKey(name(branchIds[i])));
+        }
+        cwds = cwdNames.toArray(new String[0]);
+        branches = branchNames.toArray(new String[0]);
+        int[] cwdKeyOf = keyIds(names, cwds, true);
+        int[] branchKeyOf = keyIds(names, branches, false);
+
+        cwdKeys = new int[n];
+        branchKeys = new int[n];
+        for (int i = 0; i < n; i++) {
+            cwdKeys[i] = fileIds[i] < 0 ? Arrays.binarySearch(cwds, NO_CWD) : cwdKeyOf[fileIds[i]];
+            branchKeys[i] = branchIds[i] < 0 ? Arrays.binarySearch(branches, NO_BRANCH) : branchKeyOf[branchIds[i]];
+        }
+
+        // Least significant key first; each pass is stable, so earlier orderings survive as tie-breaks
+        int[] byTime = newestFirst(epochMillis);
+        int[] byBranch = countingSort(byTime, branchKeys, branches.length);
+        order = countingSort(byBranch, cwdKeys, cwds.length);
+
+        cwdStart = new int[cwds.length + 1];
+        for (int key : cwdKeys) cwdStart[key + 1]++;
+        for (int c = 0; c < cwds.length; c++) cwdStart[c + 1] += cwdStart[c];
+    }
+
+    /** Group {@code sessions} by cwd and branch, newest first. */
+    static SessionStore of(List<CodexIndexGenerator.SessionInfo> sessions) {
+        int n = sessions.size();
+        List<String> names = new ArrayList<>();
+        Map<String, Integer> ids = new HashMap<>();
+        int[] fileIds = new int[n];
+        int[] branchIds = new int[n];
+        long[] millis = new long[n];
+        byte[][] times = new byte[n][];
+        byte[][] sessionIds = new byte[n][];
+        byte[][] messages = new byte[n][];
+        String[] paths = new String[n];
+        for (int i = 0; i < n; i++) {
+            CodexIndexGenerator.SessionInfo s = sessions.get(i);
+            fileIds[i] = intern(s.file, names, ids);
+            branchIds[i] = intern(s.branch, names, ids);
+            millis[i] = BinarySessionIndex.epochMillis(s.time);
+            times[i] = encode(s.time);
+            sessionIds[i] = encode(s.sessionId);
+            messages[i] = encode(s.firstUserMessage);
+            paths[i] = s.jsonlFilePath;
+        }
+        return new SessionStore(names.toArray(new String[0]), fileIds, branchIds, millis, times, sessionIds, messages, paths);
+    }
+
+    int size() {
+        return order.length;
+    }
+
+    /** The index as written to codex_sessions_index.json: cwd → branch → sessions, newest first. */
+    Map<String, Map<String, List<CodexIndexGenerator.SessionInfo>>> grouped() {
+        Map<String, Map<String, List<CodexIndexGenerator.SessionInfo>>> out = new TreeMap<>();
+        for (int c = 0; c < cwds.length; c++) out.put(cwds[c], byBranch(c));
+        return out;
+    }
+
+    /** One cwd's branch → sessions map; empty when the cwd is unknown. */
+    Map<String, List<CodexIndexGenerator.SessionInfo>> byBranch(String cwd) {
+        int c = Arrays.binarySearch(cwds, cwd);
+        return c < 0 ? new TreeMap<>() : byBranch(c);
+    }
+
+    /**
+     * {@link #grouped()} as JSON, written from the columns without building a session object;
+     * {@code indent} pretty-prints it as codex_sessions_index.json always has been.
+     */
+    void writeJson(OutputStream out, boolean indent) throws IOException {
+        try (JsonGenerator g = JSON.createGenerator(out, JsonEncoding.UTF8)) {
+            if (indent) g.useDefaultPrettyPrinter();
+            g.writeStartObject();
+            for (int c = 0; c < cwds.length; c++) {
+                g.writeFieldName(cwds[c]);
+                writeBranches(g, c);
+            }
+            g.writeEndObject();
+        }
+    }
+
+    /** {@link #byBranch(String)} as JSON; {} when the cwd is unknown. */
+    void writeJson(OutputStream out, String cwd) throws IOException {
+        int c = Arrays.binarySearch(cwds, cwd);
+        try (JsonGenerator g = JSON.createGenerator(out, JsonEncoding.UTF8)) {
+            if (c < 0) {
+                g.writeStartObject();
+                g.writeEndObject();
+            } else {
+                writeBranches(g, c);
+            }
+        }
+    }
+
+    /** One cwd's sessions for {@link SessionQuery}, with the millis already parsed. */
+    List<BinarySessionIndex.SessionEntry> entries(String cwd) {
+        int c = Arrays.binarySearch(cwds, cwd);
+        if (c < 0) return new ArrayList<>();
+        List<BinarySessionIndex.SessionEntry> out = new ArrayList<>(cwdStart[c + 1] - cwdStart[c]);
+        for (int k = cwdStart[c]; k < cwdStart[c + 1]; k++) {
+            int slot = order[k];
+            out.add(new BinarySessionIndex.SessionEntry(branches[branchKeys[slot]], epochMillis[slot], info(slot)));
+        }
+        return out;
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                      Private Methods                                                           *//
+    //**********************************************************************************************************************************//
+
+    private Map<String, List<CodexIndexGenerator.SessionInfo>> byBranch(int c) {
+        Map<String, List<CodexIndexGenerator.SessionInfo>> out = new TreeMap<>();
+        List<CodexIndexGenerator.SessionInfo> run = null;
+        int runBranch = -1;
+        for (int k = cwdStart[c]; k < cwdStart[c + 1]; k++) {
+            int slot = order[k];
+            if (run == null || branchKeys[slot] != runBranch) {
+                runBranch = branchKeys[slot];
+                run = new ArrayList<>();
+                out.put(branches[runBranch], run);
+            }
+            run.add(info(slot));
+        }
+        return out;
+    }
+
+    // Same field order as Jackson gives CodexIndexGenerator.SessionInfo
+    private void writeBranches(JsonGenerator g, int c) throws IOException {
+        g.writeStartObject();
+        int runBranch = -1;
+        for (int k = cwdStart[c]; k < cwdStart[c + 1]; k++) {
+            int slot = order[k];
+            if (branchKeys[slot] != runBranch) {
+                if (runBranch >= 0) g.writeEndArray();
+                runBranch = branchKeys[slot];
+                g.writeArrayFieldStart(branches[runBranch]);
+            }
+            g.writeStartObject();
+            writeBytes(g, "firstUserMessage", messages[slot]);
+            writeString(g, "branch", name(branchIds[slot]));
+            writeBytes(g, "time", times[slot]);
+            writeBytes(g, "sessionId", sessionIds[slot]);
+            writeString(g, "file", name(fileIds[slot]));
+            writeString(g, "jsonlFilePath", paths[slot]);
+            g.writeEndObject();
+        }
+        if (runBranch >= 0) g.writeEndArray();
+        g.writeEndObject();
+    }
+
+    private static void writeBytes(JsonGenerator g, String field, byte[] utf8) throws IOException {
+        g.writeFieldName(field);
+        if (utf8 == null) g.writeNull();
+        else g.writeUTF8String(utf8, 0, utf8.length);
+    }
+
+    private static void writeString(JsonGenerator g, String field, String value) throws IOException {
+        g.writeFieldName(field);
+        if (value == null) g.writeNull();
+        else g.writeString(value);
+    }
+
+    private CodexIndexGenerator.SessionInfo info(int slot) {
+        CodexIndexGenerator.SessionInfo s = new CodexIndexGenerator.SessionInfo();
+        s.firstUserMessage = decode(messages[slot]);
+        s.branch = name(branchIds[slot]);
+        s.time = decode(times[slot]);
+        s.sessionId = decode(sessionIds[slot]);
+        s.file = name(fileIds[slot]);
+        s.jsonlFilePath = paths[slot];
+        return s;
+    }
+
+    private String name(int id) {
+        return id < 0 ? null : names[id];
+    }
+
+    private static String cwdKey(String cwd) {
+        return cwd != null ? cwd : NO_CWD;
+    }
+
+    private static String branchKey(String branch) {
+        return branch != null && !branch.isBlank() ? branch : NO_BRANCH;
+    }
+
+    // Key id of every name in the sorted keys; -1 for names that are never used as this kind of key
+    private static int[] keyIds(String[] names, String[] sortedKeys, boolean cwd) {
+        int[] out = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            out[i] = Arrays.binarySearch(sortedKeys, cwd ? cwdKey(names[i]) : branchKey(names[i]));
+            if (out[i] < 0) out[i] = -1;
+        }
+        return out;
+    }
+
+    private static int intern(String name, List<String> names, Map<String, Integer> ids) {
+        if (name == null) return -1;
+        Integer id = ids.get(name);
+        if (id == null) {
+            id = names.size();
+            names.add(name);
+            ids.put(name, id);
+        }
+        return id;
+    }
+
+    private static byte[] encode(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String decode(byte[] b) {
+        return b == null ? null : new String(b, StandardCharsets.UTF_8);
+    }
+
+    // Slots ordered by millis descending, equal millis in slot order: bottom-up merge sort on int[]
+    private static int[] newestFirst(long[] millis) {
+        int n = millis.length;
+        int[] a = new int[n];
+        int[] b = new int[n];
+        for (int i = 0; i < n; i++) a[i] = i;
+        for (int width = 1; width < n; width <<= 1) {
+            for (int lo = 0; lo < n; lo += width << 1) {
+                int mid = Math.min(lo + width, n), hi = Math.min(lo + (width << 1), n);
+                int i = lo, j = mid, k = lo;
+                // The right run only goes first when strictly newer, which keeps the sort stable
+                while (i < mid && j < hi) b[k++] = millis[a[j]] > millis[a[i]] ? a[j++] : a[i++];
+                while (i < mid) b[k++] = a[i++];
+                while (j < hi) b[k++] = a[j++];
+            }
+            int[] t = a;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    // Stable reorder of slots by a small dense key
+    private static int[] countingSort(int[] slots, int[] keys, int keyCount) {
+        int[] next = new int[keyCount + 1];
+        for (int slot : slots) next[keys[slot] + 1]++;
+        for (int k = 0; k < keyCount; k++) next[k + 1] += next[k];
+        int[] out = new int[slots.length];
+        for (int slot : slots) out[next[keys[slot]]++] = slot;
+        return out;
+    }
+}
@@ -1,22 +1,20 @@
 package org.jaysabva.codexsetup;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DatabindException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Slack Workflow notifier for codex based on event
@@ -27,22 +25,72 @@ import java.util.stream.Collectors;
  */
 public class SlackNotifier {
 
-    private final static String ULTRON_JIRA_WEBHOOK_URL = System.getenv("ULTRON_JIRA_WEBHOOK_URL");
-    private final static String JUGGERNAUT_REVIEW_WEBHOOK_URL = System.getenv("JUGGERNAUT_REVIEW_WEBHOOK_URL");
-    private final static String GALACTUS_GITLAB_MR_WEBHOOK_URL = System.getenv("GALACTUS_GITLAB_MR_WEBHOOK_URL");
+    private final static String ULTRON_JIRA_WEBHOOK_URL = webhookUrl("ULTRON_JIRA_WEBHOOK_URL");
+    private final static String JUGGERNAUT_REVIEW_WEBHOOK_URL = webhookUrl("JUGGERNAUT_REVIEW_WEBHOOK_URL");
+    private final static String GALACTUS_GITLAB_MR_WEBHOOK_URL = webhookUrl("GALACTUS_GITLAB_MR_WEBHOOK_URL");
     private final static ObjectMapper mapper = new ObjectMapper();
 
-    public static void main(String[] args) throws JsonProcessingException {
+    private static final String FINDINGS_HEADER = ":rotating_light: *Code Review Findings*\n\n";
+    private static final String FINDINGS_CONTINUED_HEADER = ":rotating_light: *Code Review Findings (continued)*\n\n";
+    // Findings beyond this many messages only show up in the overflow note
+    private static final int MAX_FINDINGS_MESSAGES = 4;
+    private static final long METRICS_WRITE_SECONDS = 15;
+
+    // Reported with --stats / --metrics-file
+    private static final Metrics.Timer PHASE_PARSE = phase("parse");
+    private static final Metrics.Timer PHASE_RENDER = phase("render");
+    private static final Metrics.Timer PHASE_ENQUEUE = phase("enqueue");
+
+    public static void main(String[] args) throws IOException {
+        boolean stats = false;
+        int i = 0;
+        for (; i < args.length; i++) {
+            if ("--stats".equals(args[i])) {
+                stats = true;
+            } else if ("--metrics-file".equals(args[i]) && i + 1 < args.length) {
+                // A property, so the drainer process spawned for delivery writes it too
+                System.setProperty(Metrics.FILE_PROPERTY, args[++i]);
+            } else {
+                break;
+            }
+        }
+        args = Arrays.copyOfRange(args, i, args.length);
+
+        if (args.length > 0 && "--serve".equals(args[0])) {
+            NotifierAgent.main(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+        if (args.length > 0 && "--drain".equals(args[0])) {
+            Path metricsFile = Metrics.configuredFile();
+            if (metricsFile != null) Metrics.startWriter(metricsFile, METRICS_WRITE_SECONDS);
+            drainOutbox();
+            if (stats) Metrics.print(System.err);
+            return;
+        }
         if (args.length == 0 || args[0] == null || args[0].isBlank()) {
-            System.err.println("Usage: java SlackNotifier '<JSON_DATA>'");
+            System.err.println("Usage: java SlackNotifier [--stats] [--metrics-file <path>] "
+                    + "'<JSON_DATA>' | --serve [--socket <path> | --port <n>] | --drain");
             return;
         }
 
-        String inputJson = args[0];
+        // A running agent delivers it; otherwise deliver from this process
+        if (NotifierAgent.forward(args[0])) {
+            return;
+        }
+        handle(args[0]);
+        // The metrics file belongs to the process doing the posts (drainer or agent); this one only prints
+        if (stats) Metrics.print(System.err);
+    }
+
+    /** Route one agent-turn-complete event to its Slack workflow. */
+    static void handle(String inputJson) throws JsonProcessingException {
+        long start = System.nanoTime();
         JsonNode inputJsonNode = mapper.readTree(inputJson);
 
         String type = inputJsonNode.path("type").asText();
         if (!type.equals("agent-turn-complete")) {
+            PHASE_PARSE.since(start);
+            event("ignored");
             return;
         }
 
@@ -51,23 +99,30 @@ public class SlackNotifier {
             return;
         }
 
-        JsonNode maybeJson = tryParseJson(codexResponse);
+        AssistantJson maybeJson = tryParseJson(codexResponse);
+        PHASE_PARSE.since(start);
         if (maybeJson != null) {
-            if (maybeJson.has("findings")) {
+            if (maybeJson.hasFindings) {
+                event("findings");
                 handleCodeReviewFindings(maybeJson);
                 return;
-            } else if ("Gitlab-MR".equalsIgnoreCase(maybeJson.path("type").asText())) {
-                handleGitlabMR(maybeJson);
+            } else if ("Gitlab-MR".equalsIgnoreCase(maybeJson.fields.path("type").asText())) {
+                event("gitlab_mr");
+                handleGitlabMR(maybeJson.fields);
                 return;
             }
         }
 
         if (codexResponse.startsWith("[JIRA-EXPLAIN")) {
+            event("jira");
             handleJiraSummary(inputJsonNode, codexResponse);
+        } else {
+            event("ignored");
         }
     }
 
     private static void handleGitlabMR(JsonNode mrJson) {
+        long start = System.nanoTime();
         String ticket = nullToEmpty(mrJson.path("ticket").asText(""));
         String pr = nullToEmpty(mrJson.path("pr").asText(""));
         String source = nullToEmpty(mrJson.path("source").asText(""));
@@ -99,206 +154,189 @@ public class SlackNotifier {
         sb.append("*[ ").append(source).append(" → ").append(target).append(" ]*");
 
         String payload = "{\"text\":\"" + escapeJson(sb.toString()) + "\"}";
+        PHASE_RENDER.since(start);
 
         // Send to the GitLab MR webhook
         sendSlackAlert(payload, GALACTUS_GITLAB_MR_WEBHOOK_URL);
     }
 
-    private static void handleCodeReviewFindings(JsonNode findingsPayload) {
-        try {
-            List<Finding> findings = Arrays.asList(
-                    mapper.treeToValue(findingsPayload.path("findings"), Finding[].class)
-            );
-
-            findings = findings.stream()
-                    .sorted(Comparator.comparingInt((Finding f) -> f.priority).thenComparing((f -> f.confidence_score)))
-                    .collect(Collectors.toList());
-
-            Collections.reverse(findings);
-
-            String slackText = buildFindingsSlackMessage(findingsPayload, findings);
-
-            slackText = toSlackMrkdwn(slackText);
+    private static void handleCodeReviewFindings(AssistantJson review) {
+        if (review.findingsError != null) {
+            System.err.println("Failed to parse findings: " + review.findingsError);
+            return;
+        }
 
-            String payload = "{\"text\":\"" + escapeJson(slackText) + "\"}";
+        long start = System.nanoTime();
+        List<String> payloads = new ArrayList<>();
+        for (String slackText : buildFindingsSlackMessages(review.fields, review.findings, SlackOutbox.MAX_PAYLOAD_BYTES)) {
+            // mrkdwn conversion and JSON escaping in one pass
+            payloads.add("{\"text\":\"" + TextPipeline.mrkdwnJson(slackText) + "\"}");
+        }
+        PHASE_RENDER.since(start);
 
+        for (String payload : payloads) {
             sendSlackAlert(payload, JUGGERNAUT_REVIEW_WEBHOOK_URL);
-        } catch (Exception e) {
-//            System.err.println("Failed to parse findings: " + e.getMessage());
         }
     }
 
     private static void handleJiraSummary(JsonNode inputJsonNode, String codexResponse) {
-        String unescaped = jsonUnescape(codexResponse);
+        long start = System.nanoTime();
         String ticketNumber = codexResponse.substring(14, codexResponse.indexOf(']')).trim();
-        unescaped = unescaped.replaceFirst("\\[JIRA-EXPLAIN-[^\\]]+\\]\\n", "");
 
-        String slackText = toSlackMrkdwn(unescaped);
+        // unescape -> drop the [JIRA-EXPLAIN-…] header line -> mrkdwn -> JSON escape, in one pass
+        String slackText = TextPipeline.jiraJson(codexResponse);
 
-        String payload = "{\"text\":\"" + escapeJson(slackText) + "\", \"ticket\": \"" + escapeJson(ticketNumber) + "\"}";
+        String payload = "{\"text\":\"" + slackText + "\", \"ticket\": \"" + escapeJson(ticketNumber) + "\"}";
+        PHASE_RENDER.since(start);
 
         sendSlackAlert(payload, ULTRON_JIRA_WEBHOOK_URL);
     }
 
-    private static String buildFindingsSlackMessage(JsonNode findingsPayload, List<Finding> findings) {
-        String correctness = findingsPayload.path("overall_correctness").asText("");
-        String explanation = findingsPayload.path("overall_explanation").asText("");
-        double confOverall = findingsPayload.path("overall_confidence_score").asDouble(0.0);
-
+    static String buildFindingsSlackMessage(JsonNode findingsPayload, List<Finding> findings) {
         StringBuilder sb = new StringBuilder();
 
         // Header
-        sb.append(":rotating_light: *Code Review Findings*").append("\n\n");
+        sb.append(FINDINGS_HEADER);
 
         int idx = 1;
         for (Finding f : findings) {
-            String titleRaw = nullToEmpty(f.title);
-            String title = escSlack(titleRaw);
-
-            long fConfPct = Math.round(f.confidence_score * 100);
-            String prTag = "[P" + f.priority + "]";
-            String confTag = "[" + fConfPct + "%]";
-
-            // If title already starts with [P?], strip it
-            String cleanTitle = title.replaceAll("^\\[P\\d+\\]\\s*", "");
-
-            // Desired format: [P0] Restore aggregation TZ propagation [40%]
-            sb.append("*")
-                    .append(idx)
-                    .append(") ")
-                    .append(prTag)
-                    .append(" ")
-                    .append(cleanTitle)
-                    .append(" ")
-                    .append(confTag)
-                    .append("*\n");
-
-            // Code reference
-            String file = (f.code_location != null) ? nullToEmpty(f.code_location.absolute_file_path) : "";
-            String lines = "";
-            if (f.code_location != null && f.code_location.line_range != null) {
-                lines = f.code_location.line_range.start + "–" + f.code_location.line_range.end;
-            }
-            if (!file.isEmpty()) {
-                sb.append("• _Code Reference:_ `")
-                        .append(escSlack(file))
-                        .append(lines.isEmpty() ? "" : (":" + lines))
-                        .append("`\n");
-            }
-
-            // Body as quoted block
-            String body = escSlack(nullToEmpty(f.body));
-            if (!body.isEmpty()) {
-                sb.append("> ").append(body.replace("\n", "\n> ")).append("\n");
-            }
-
-            sb.append("\n");
-            idx++;
+            appendFinding(sb, idx++, f);
         }
 
         // Overall summary
-        if (!explanation.isEmpty() || confOverall > 0.0 || !correctness.isEmpty()) {
-            sb.append("*Overall Summary*\n");
-            if (!correctness.isEmpty()) {
-                sb.append("*Correctness:* ").append(escSlack(correctness)).append("\n");
-            }
-            if (!explanation.isEmpty()) {
-                sb.append("*Explanation:* ").append(escSlack(explanation)).append("\n");
+        appendOverallSummary(sb, findingsPayload);
+
+        return sb.toString();
+    }
+
+    /**
+     * The findings message cut into messages of at most {@code budget} payload bytes each (UTF-8,
+     * after mrkdwn and JSON escaping). When everything fits this is exactly one
+     * {@link #buildFindingsSlackMessage} message. Otherwise findings are packed in rank order, a
+     * single finding too large for a message is truncated, and whatever the top-K or the message
+     * cap left out is summed up per priority before the overall summary.
+     */
+    static List<String> buildFindingsSlackMessages(JsonNode findingsPayload, ReviewFindings findings, int budget) {
+        List<Finding> ranked = findings.ranked();
+        List<String> messages = new ArrayList<>();
+        int continuedHeaderBytes = TextPipeline.mrkdwnJsonBytes(FINDINGS_CONTINUED_HEADER);
+
+        StringBuilder current = new StringBuilder(FINDINGS_HEADER);
+        int currentBytes = TextPipeline.mrkdwnJsonBytes(FINDINGS_HEADER);
+        boolean currentHasFindings = false;
+        int shown = 0;
+        for (Finding f : ranked) {
+            StringBuilder block = new StringBuilder();
+            appendFinding(block, shown + 1, f);
+            String text = fitToBudget(block.toString(), budget - continuedHeaderBytes);
+            int bytes = TextPipeline.mrkdwnJsonBytes(text);
+
+            if (currentHasFindings && currentBytes + bytes > budget) {
+                if (messages.size() + 1 >= MAX_FINDINGS_MESSAGES) break;
+                messages.add(current.toString());
+                current = new StringBuilder(FINDINGS_CONTINUED_HEADER);
+                currentBytes = continuedHeaderBytes;
             }
+            current.append(text);
+            currentBytes += bytes;
+            currentHasFindings = true;
+            shown++;
         }
 
-        return sb.toString();
+        StringBuilder tail = new StringBuilder();
+        appendOverflow(tail, findings, ranked.subList(shown, ranked.size()));
+        appendOverallSummary(tail, findingsPayload);
+        if (currentHasFindings && currentBytes + TextPipeline.mrkdwnJsonBytes(tail) > budget) {
+            messages.add(current.toString());
+            current = new StringBuilder(FINDINGS_CONTINUED_HEADER);
+        }
+        current.append(tail);
+        messages.add(current.toString());
+        return messages;
     }
 
+    // Queued in the durable outbox; a drainer process (or the resident agent) does the POST
     private static void sendSlackAlert(String payload, String webhookUrl) {
-        HttpURLConnection conn = null;
+        if (webhookUrl == null || webhookUrl.isBlank()) {
+            System.err.println("[Slack] Error sending alert: webhook URL not set");
+            return;
+        }
+        long start = System.nanoTime();
         try {
-            URL url = new URL(webhookUrl);
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
-            conn.setDoOutput(true);
-
-            byte[] postData = payload.getBytes(StandardCharsets.UTF_8);
-            try (OutputStream os = conn.getOutputStream()) {
-                os.write(postData);
-            }
-
-            int responseCode = conn.getResponseCode();
-            if (responseCode != HttpURLConnection.HTTP_OK) {
-                try (InputStream err = conn.getErrorStream()) {
-                    if (err != null) {
-                        String error = new String(err.readAllBytes(), StandardCharsets.UTF_8);
-                        System.err.println("[Slack] Failed: " + responseCode + " - " + error);
-                    }
-                }
-            }
+            SlackOutbox.submit(webhookUrl, payload);
+            PHASE_ENQUEUE.since(start);
         } catch (IOException e) {
-            System.err.println("[Slack] Error sending alert: " + e.getMessage());
-        } finally {
-            if (conn != null) conn.disconnect();
+            // Outbox not writable: a direct attempt beats losing the message
+            System.err.println("[Slack] Outbox unavailable (" + e.getMessage() + "), sending directly");
+            SlackOutbox.Delivery d = SlackOutbox.post(webhookUrl, payload);
+            if (!d.ok()) System.err.println("[Slack] Failed: " + d.status + " - " + d.error);
         }
     }
 
-    private static JsonNode tryParseJson(String s) {
+    /** Deliver everything queued in the outbox, then exit; no-op when another drainer is running. */
+    private static void drainOutbox() throws IOException {
         try {
-            if (s == null || s.isEmpty()) return null;
-            char first = s.charAt(0);
-            if (first != '{' && first != '[') return null;
-            return mapper.readTree(s);
-        } catch (Exception ignore) {
-            return null;
+            SlackOutbox.open().drain(true);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
-    // --- Turn JSON escape sequences into real characters ---
-    private static String jsonUnescape(String s) {
-        StringBuilder out = new StringBuilder(s.length());
-        for (int i = 0; i < s.length(); i++) {
-            char c = s.charAt(i);
-            if (c == '\\' && i + 1 < s.length()) {
-                char n = s.charAt(i + 1);
-                switch (n) {
-                    case 'n':
-                        out.append('\n');
-                        i++;
-                        continue;
-                    case 'r':
-                        out.append('\r');
-                        i++;
-                        continue;
-                    case 't':
-                        out.append('\t');
-                        i++;
-                        continue;
-                    case '"':
-                        out.append('\"');
-                        i++;
-                        continue;
-                    case '\\':
-                        out.append('\\');
-                        i++;
-                        continue;
-                    case 'u':
-                        if (i + 5 < s.length()) {
-                            String hex = s.substring(i + 2, i + 6);
-                            try {
-                                out.append((char) Integer.parseInt(hex, 16));
-                                i += 5;
-                                continue;
-                            } catch (Exception ignore) {
-                            }
-                        }
-                        // fallthrough if broken
-                    default:
-                        out.append(n);
-                        i++;
-                        continue;
+    private static Metrics.Timer phase(String name) {
+        return Metrics.timer("codex_notifier_phase_seconds", "Time spent per notifier phase", "phase", name);
+    }
+
+    private static void event(String route) {
+        Metrics.counter("codex_notifier_events_total", "Notify events handled, by where they were routed", "route", route).inc();
+    }
+
+    // System property first (e.g. a local stub server), then the environment
+    private static String webhookUrl(String name) {
+        String url = System.getProperty(name);
+        return url != null ? url : System.getenv(name);
+    }
+
+    /**
+     * The assistant message as a JSON object, or null when it is not one. A top-level
+     * {@code findings} array is streamed straight into a bounded {@link ReviewFindings}; every
+     * other field is small and kept as a tree.
+     */
+    static AssistantJson tryParseJson(String s) {
+        // Top-level arrays were never routed anywhere
+        if (s == null || s.isEmpty() || s.charAt(0) != '{') return null;
+
+        AssistantJson json = new AssistantJson(mapper.createObjectNode());
+        try (JsonParser parser = mapper.getFactory().createParser(s)) {
+            parser.nextToken();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (!name.equals("findings")) {
+                    json.fields.set(name, mapper.readTree(parser));
+                    continue;
+                }
+
+                json.hasFindings = true;
+                if (value != JsonToken.START_ARRAY) {
+                    json.findingsError = "findings is not an array";
+                    return json;
+                }
+                try {
+                    json.findings = ReviewFindings.read(parser, mapper, ReviewFindings.MAX_FINDINGS);
+                } catch (DatabindException e) {
+                    json.findingsError = e.getMessage();
+                    return json;
                 }
             }
-            out.append(c);
+            return json;
+        } catch (IOException | RuntimeException ignore) {
+            return null;
         }
-        return out.toString();
+    }
+
+    // --- Turn JSON escape sequences into real characters ---
+    static String jsonUnescape(String s) {
+        return TextPipeline.unescape(s);
     }
 
     //**********************************************************************************************************************************//
@@ -306,47 +344,132 @@ public class SlackNotifier {
     //**********************************************************************************************************************************//
 
     // --- Convert GitHub-style markdown to Slack mrkdwn ---
-    private static String toSlackMrkdwn(String s) {
-        // **bold** -> *bold*  (Slack understands *bold*)
-        s = s.replace("**", "*");
-
-        // [label](url) -> <url|label>
-        // Use regex to transform markdown links
-        Pattern p = Pattern.compile("\\[([^\\]]+)\\]\\(([^)]+)\\)");
-        Matcher m = p.matcher(s);
-        StringBuffer sb = new StringBuffer();
-        while (m.find()) {
-            String label = m.group(1);
-            String url = m.group(2);
-            m.appendReplacement(sb, "<" + Matcher.quoteReplacement(url) + "|" + Matcher.quoteReplacement(label) + ">");
+    static String toSlackMrkdwn(String s) {
+        // **bold** -> *bold*, [label](url) -> <url|label>, leading "- " bullets -> "• "
+        return TextPipeline.mrkdwn(s);
+    }
+
+    // --- Escape for JSON embedding ---
+    static String escapeJson(String s) {
+        return TextPipeline.jsonEscape(s);
+    }
+
+    private static void appendFinding(StringBuilder sb, int idx, Finding f) {
+        String titleRaw = nullToEmpty(f.title);
+        String title = escSlack(titleRaw);
+
+        long fConfPct = Math.round(f.confidence_score * 100);
+        String prTag = "[P" + f.priority + "]";
+        String confTag = "[" + fConfPct + "%]";
+
+        // If title already starts with [P?], strip it
+        String cleanTitle = title.replaceAll("^\\[P\\d+\\]\\s*", "");
+
+        // Desired format: [P0] Restore aggregation TZ propagation [40%]
+        sb.append("*")
+                .append(idx)
+                .append(") ")
+                .append(prTag)
+                .append(" ")
+                .append(cleanTitle)
+                .append(" ")
+                .append(confTag)
+                .append("*\n");
+
+        // Code reference
+        String file = (f.code_location != null) ? nullToEmpty(f.code_location.absolute_file_path) : "";
+        String lines = "";
+        if (f.code_location != null && f.code_location.line_range != null) {
+            lines = f.code_location.line_range.start + "–" + f.code_location.line_range.end;
+        }
+        if (!file.isEmpty()) {
+            sb.append("• _Code Reference:_ `")
+                    .append(escSlack(file))
+                    .append(lines.isEmpty() ? "" : (":" + lines))
+                    .append("`\n");
         }
-        m.appendTail(sb);
-        s = sb.toString();
 
-        // Optional: convert leading "- " bullets to "• " (purely cosmetic)
-        s = s.replaceAll("(?m)^-\\s", "• ");
+        // Body as quoted block
+        String body = escSlack(nullToEmpty(f.body));
+        if (!body.isEmpty()) {
+            sb.append("> ").append(body.replace("\n", "\n> ")).append("\n");
+        }
 
-        return s;
+        sb.append("\n");
     }
 
-    // --- Escape for JSON embedding ---
-    private static String escapeJson(String s) {
-        return s.replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\n", "\\n")
-                .replace("\r", "")
-                .replace("\t", "\\t");
+    private static void appendOverallSummary(StringBuilder sb, JsonNode findingsPayload) {
+        String correctness = findingsPayload.path("overall_correctness").asText("");
+        String explanation = findingsPayload.path("overall_explanation").asText("");
+        double confOverall = findingsPayload.path("overall_confidence_score").asDouble(0.0);
+
+        if (!explanation.isEmpty() || confOverall > 0.0 || !correctness.isEmpty()) {
+            sb.append("*Overall Summary*\n");
+            if (!correctness.isEmpty()) {
+                sb.append("*Correctness:* ").append(escSlack(correctness)).append("\n");
+            }
+            if (!explanation.isEmpty()) {
+                sb.append("*Explanation:* ").append(escSlack(explanation)).append("\n");
+            }
+        }
+    }
+
+    // e.g. "_…and 12 more findings not shown (P2: 3, P1: 9)_"
+    private static void appendOverflow(StringBuilder sb, ReviewFindings findings, List<Finding> unsent) {
+        int hidden = findings.dropped() + unsent.size();
+        if (hidden == 0) return;
+
+        Map<Integer, Integer> byPriority = new TreeMap<>(findings.droppedByPriority());
+        for (Finding f : unsent) byPriority.merge(f.priority, 1, Integer::sum);
+
+        sb.append("_…and ").append(hidden).append(hidden == 1 ? " more finding" : " more findings").append(" not shown (");
+        String sep = "";
+        for (Map.Entry<Integer, Integer> e : byPriority.entrySet()) {
+            sb.append(sep).append("P").append(e.getKey()).append(": ").append(e.getValue());
+            sep = ", ";
+        }
+        sb.append(")_\n\n");
+    }
+
+    // Longest prefix (plus an ellipsis) whose payload stays within the budget
+    private static String fitToBudget(String text, int budget) {
+        if (TextPipeline.mrkdwnJsonBytes(text) <= budget) return text;
+        int lo = 0;
+        int hi = text.length();
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (TextPipeline.mrkdwnJsonBytes(cut(text, mid)) <= budget) lo = mid;
+            else hi = mid - 1;
+        }
+        return cut(text, lo);
+    }
+
+    private static String cut(String text, int end) {
+        if (end > 0 && Character.isHighSurrogate(text.charAt(end - 1))) end--;
+        return text.substring(0, end) + "…\n\n";
     }
 
     private static String escSlack(String s) {
         // Minimal escaping for Slack mrkdwn: escape special chars in link contexts
-        return s.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        return TextPipeline.slackEscape(s);
     }
 
     private static String nullToEmpty(String s) {
         return (s == null) ? "" : s;
     }
 
+    /** Assistant message parsed as a JSON object; {@code findings} only when it had a findings array. */
+    static class AssistantJson {
+        final ObjectNode fields;
+        boolean hasFindings;
+        ReviewFindings findings;
+        String findingsError;
+
+        AssistantJson(ObjectNode fields) {
+            this.fields = fields;
+        }
+    }
+
     public static class Finding {
         public String title;
         public String body;
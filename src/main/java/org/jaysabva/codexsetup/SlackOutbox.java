@@ -0,0 +1,567 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Durable Slack outbox. The notify hook appends each webhook post to outbox.log and returns;
+ * a single drainer (the resident agent, or a detached {@code --drain} process) delivers them.
+ *
+ * Layout under ~/.codex/slack_outbox (override with {@code -Dcodex.outbox.dir}):
+ * <pre>
+ * outbox.log   append-only JSON lines {id, url, payload, created}
+ * acked.log    append-only JSON lines {ids, result, at}; result is "sent" or "dead"
+ * dead.log     entries given up on, with the reason
+ * append.lock  serialises writers across processes
+ * drain.lock   held by the one active drainer
+ * </pre>
+ * Posts to one webhook that arrive within {@link #COALESCE_MILLIS} of each other go out together:
+ * plain {"text"} payloads joined into one message, every entry's text kept. Failures back off
+ * exponentially per webhook, 429s wait for Retry-After, other 4xx are dead-lettered. An entry is
+ * acked (and fsynced) right after its 2xx, so a restarted drainer never re-sends acknowledged
+ * posts; only a crash between the response and that ack can repeat one.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+class SlackOutbox {
+
+    static final Path DEFAULT_DIR = Paths.get(System.getProperty("user.home"), ".codex", "slack_outbox");
+
+    // A burst to one webhook is collected until it has been quiet this long, but never held past the max
+    static final long COALESCE_MILLIS = 2000;
+    private static final long MAX_COALESCE_MILLIS = 10_000;
+    private static final long BASE_BACKOFF_MILLIS = 1000;
+    private static final long MAX_BACKOFF_MILLIS = 5 * 60_000;
+    // Undeliverable for this long: dead-letter instead of retrying forever
+    private static final long MAX_AGE_MILLIS = 24 * 60 * 60_000;
+    private static final long POLL_MILLIS = 500;
+    // One post's JSON body in UTF-8 bytes: well under Slack's 40k-char text limit, and the size the
+    // findings message is split at, so coalescing never glues split parts back together
+    static final int MAX_PAYLOAD_BYTES = 12_000;
+    // Fully acked logs are truncated once the outbox grows past this
+    private static final long COMPACT_BYTES = 1 << 20;
+    // slack-notifier.jar -> slack-notifier-drain.jsa next to it
+    private static final String DRAINER_ARCHIVE_SUFFIX = "-drain.jsa";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper()
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    // Reported with --stats / --metrics-file
+    private static final Metrics.Histogram HTTP_LATENCY = Metrics.histogram("codex_slack_http_request_seconds",
+            "Slack webhook POST latency, including failed attempts", Metrics.LATENCY_BUCKETS);
+    private static final Metrics.Counter ENTRIES_QUEUED =
+            Metrics.counter("codex_slack_outbox_entries_total", "Outbox entries by outcome", "result", "queued");
+    private static final Metrics.Counter ENTRIES_SENT =
+            Metrics.counter("codex_slack_outbox_entries_total", "Outbox entries by outcome", "result", "sent");
+    private static final Metrics.Counter ENTRIES_DEAD =
+            Metrics.counter("codex_slack_outbox_entries_total", "Outbox entries by outcome", "result", "dead");
+    private static final Metrics.Counter RETRIES =
+            Metrics.counter("codex_slack_outbox_retries_total", "Posts put back for a retry after a 429, 5xx or network failure");
+
+    // Set by the resident agent, whose drainer thread is woken instead of spawning a process
+    static volatile SlackOutbox inProcess;
+
+    private final Path dir;
+    private final Path outboxFile;
+    private final Path ackFile;
+    private final Path deadFile;
+    private final Path appendLock;
+    private final Path drainLock;
+    private final Object signal = new Object();
+
+    public static class Entry {
+        public String id;
+        public String url;
+        public String payload;
+        public long created;
+    }
+
+    public static class Ack {
+        public List<String> ids;
+        public String result;
+        public long at;
+    }
+
+    /** Outcome of one POST: HTTP status (0 when it never got one) and Retry-After, if any. */
+    static class Delivery {
+        final int status;
+        final long retryAfterMillis;
+        final String error;
+
+        Delivery(int status, long retryAfterMillis, String error) {
+            this.status = status;
+            this.retryAfterMillis = retryAfterMillis;
+            this.error = error;
+        }
+
+        boolean ok() {
+            return status >= 200 && status < 300;
+        }
+    }
+
+    // Built on first delivery only: the hook process just appends and must not pay for TLS setup
+    private static class Http {
+        static final HttpClient CLIENT = HttpClient.newBuilder()
+                .connectTimeout(Duration.ofSeconds(10))
+                .build();
+    }
+
+    // Per-webhook retry state, drainer thread only
+    private static class Target {
+        int failures;
+        long nextAttemptAt;
+    }
+
+    SlackOutbox(Path dir) {
+        this.dir = dir;
+        this.outboxFile = dir.resolve("outbox.log");
+        this.ackFile = dir.resolve("acked.log");
+        this.deadFile = dir.resolve("dead.log");
+        this.appendLock = dir.resolve("append.lock");
+        this.drainLock = dir.resolve("drain.lock");
+    }
+
+    static SlackOutbox open() {
+        String override = System.getProperty("codex.outbox.dir");
+        return new SlackOutbox(override != null ? Paths.get(override) : DEFAULT_DIR);
+    }
+
+    /** Queue one post and make sure a drainer will pick it up. */
+    static void submit(String url, String payload) throws IOException {
+        SlackOutbox resident = inProcess;
+        SlackOutbox outbox = resident != null ? resident : open();
+        outbox.append(url, payload);
+        if (resident != null) resident.wake();
+        else outbox.spawnDrainer();
+    }
+
+    void append(String url, String payload) throws IOException {
+        long now = System.currentTimeMillis();
+        // pid + time + sequence is unique across hook processes without seeding a SecureRandom
+        String id = ProcessHandle.current().pid() + "-" + now + "-" + SEQUENCE.incrementAndGet();
+        Files.createDirectories(dir);
+
+        // Written by hand: databind's serializer setup costs more than the whole append on a cold JVM
+        JsonStringEncoder enc = JsonStringEncoder.getInstance();
+        String json = "{\"id\":\"" + id + "\",\"url\":\"" + new String(enc.quoteAsString(url))
+                + "\",\"payload\":\"" + new String(enc.quoteAsString(payload)) + "\",\"created\":" + now + "}\n";
+        byte[] line = json.getBytes(StandardCharsets.UTF_8);
+        synchronized (SlackOutbox.class) {
+            // The lock goes with its channel
+            try (FileChannel lockChannel = FileChannel.open(appendLock, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileChannel out = FileChannel.open(outboxFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                lockChannel.lock();
+                long size = out.size();
+                // A writer that died mid-line left no newline; start on a fresh line so only its entry is lost
+                if (size > 0 && !endsWithNewline(out, size)) {
+                    line = ("\n" + new String(line, StandardCharsets.UTF_8)).getBytes(StandardCharsets.UTF_8);
+                }
+                writeFully(out, ByteBuffer.wrap(line), size);
+                out.force(false);
+            }
+        }
+        ENTRIES_QUEUED.inc();
+    }
+
+    void wake() {
+        synchronized (signal) {
+            signal.notifyAll();
+        }
+    }
+
+    /** Start a detached {@code --drain} process; it exits at once if another drainer holds the lock. */
+    void spawnDrainer() {
+        try {
+            Files.createDirectories(dir);
+            // A live drainer polls the log and re-checks it before letting go of the lock
+            if (drainerRunning()) return;
+            String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+            String classPath = System.getProperty("java.class.path");
+            List<String> cmd = new ArrayList<>(Arrays.asList(java, "-Dcodex.outbox.dir=" + dir));
+            // The drainer's own AppCDS archive, trained on a --drain run (build.gradle, slackDrainerCds)
+            if (classPath.endsWith(".jar")) {
+                Path archive = Paths.get(classPath.substring(0, classPath.length() - ".jar".length()) + DRAINER_ARCHIVE_SUFFIX);
+                if (Files.exists(archive)) cmd.add("-XX:SharedArchiveFile=" + archive);
+            }
+            Path metricsFile = Metrics.configuredFile();
+            if (metricsFile != null) cmd.add("-D" + Metrics.FILE_PROPERTY + "=" + metricsFile);
+            cmd.addAll(Arrays.asList("-cp", classPath, SlackNotifier.class.getName(), "--drain"));
+            new ProcessBuilder(cmd)
+                    .redirectInput(ProcessBuilder.Redirect.from(Paths.get("/dev/null").toFile()))
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                    .redirectError(ProcessBuilder.Redirect.appendTo(dir.resolve("drain.log").toFile()))
+                    .start();
+        } catch (IOException e) {
+            System.err.println("[Slack] Could not start outbox drainer (" + e.getMessage() + "); queued for the next run");
+        }
+    }
+
+    private boolean drainerRunning() throws IOException {
+        try (FileChannel lockChannel = FileChannel.open(drainLock, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock probe = lockChannel.tryLock();
+            if (probe == null) return true;
+            probe.release();
+            return false;
+        }
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                          Draining                                                              *//
+    //**********************************************************************************************************************************//
+
+    /**
+     * Deliver queued posts while holding drain.lock. With {@code untilIdle} it returns once nothing
+     * is pending (the spawned process); otherwise it runs for good (the agent). Returns false when
+     * another drainer already holds the lock.
+     */
+    boolean drain(boolean untilIdle) throws IOException, InterruptedException {
+        Files.createDirectories(dir);
+        try (FileChannel lockChannel = FileChannel.open(drainLock, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            FileLock lock = lockChannel.tryLock();
+            if (lock == null) return false;
+
+            Set<String> acked = readAcked();
+            Map<String, Entry> pending = new LinkedHashMap<>();
+            Map<String, Target> targets = new HashMap<>();
+            long[] offset = { 0 };
+
+            while (true) {
+                readNew(offset, acked, pending);
+                long now = System.currentTimeMillis();
+                long wakeAt = now + POLL_MILLIS;
+
+                Map<String, List<Entry>> byUrl = new LinkedHashMap<>();
+                for (Entry e : pending.values()) byUrl.computeIfAbsent(e.url, k -> new ArrayList<>()).add(e);
+
+                for (Map.Entry<String, List<Entry>> group : byUrl.entrySet()) {
+                    Target target = targets.computeIfAbsent(group.getKey(), k -> new Target());
+                    List<Entry> entries = group.getValue();
+                    long oldest = entries.get(0).created;
+                    long newest = entries.get(entries.size() - 1).created;
+                    long readyAt = Math.max(target.nextAttemptAt, Math.min(newest + COALESCE_MILLIS, oldest + MAX_COALESCE_MILLIS));
+                    if (now < readyAt) {
+                        wakeAt = Math.min(wakeAt, readyAt);
+                        continue;
+                    }
+                    deliver(group.getKey(), entries, target, acked, pending);
+                    if (target.nextAttemptAt > now) wakeAt = Math.min(wakeAt, target.nextAttemptAt);
+                }
+
+                if (pending.isEmpty()) {
+                    compactIfLarge(offset, acked);
+                    if (untilIdle) {
+                        lock.release();
+                        // An append that slipped in before the release spawned a drainer that found the lock taken
+                        if (!Files.exists(outboxFile) || Files.size(outboxFile) == offset[0]) return true;
+                        lock = lockChannel.tryLock();
+                        if (lock == null) return true;
+                        continue;
+                    }
+                }
+
+                long sleep = Math.max(1, wakeAt - System.currentTimeMillis());
+                synchronized (signal) {
+                    signal.wait(sleep);
+                }
+            }
+        }
+    }
+
+    /** Send one webhook's ready entries in coalesced batches; stops at the first retryable failure. */
+    private void deliver(String url, List<Entry> entries, Target target, Set<String> acked, Map<String, Entry> pending) throws IOException {
+        for (Batch batch : coalesce(entries)) {
+            Delivery d = post(url, batch.payload);
+            if (d.ok()) {
+                target.failures = 0;
+                ack(batch.ids, "sent", acked, pending);
+                ENTRIES_SENT.add(batch.ids.size());
+                continue;
+            }
+
+            boolean retryable = d.status == 0 || d.status == 429 || d.status >= 500;
+            boolean expired = System.currentTimeMillis() - batch.oldest > MAX_AGE_MILLIS;
+            if (!retryable || expired) {
+                System.err.println("[Slack] Giving up on " + batch.ids.size() + " post(s): " + describe(d));
+                deadLetter(batch, d);
+                ack(batch.ids, "dead", acked, pending);
+                ENTRIES_DEAD.add(batch.ids.size());
+                continue;
+            }
+
+            RETRIES.inc();
+            target.failures++;
+            long backoff = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(20, target.failures - 1));
+            backoff = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+            target.nextAttemptAt = System.currentTimeMillis() + (d.status == 429 && d.retryAfterMillis > 0 ? d.retryAfterMillis : backoff);
+            System.err.println("[Slack] Failed: " + describe(d) + ", retrying in " + (target.nextAttemptAt - System.currentTimeMillis()) + " ms");
+            return;
+        }
+    }
+
+    static class Batch {
+        final List<String> ids = new ArrayList<>();
+        String payload;
+        long oldest = Long.MAX_VALUE;
+        // Texts joined into this batch
+        int parts = 1;
+    }
+
+    /**
+     * Consecutive {"text": …}-only payloads are joined with a blank line while they fit, repeated
+     * texts included: each entry is its own notification. Anything else (e.g. the Jira workflow's
+     * ticket field) goes out on its own. Only a re-appended entry (same id) rides along with the
+     * batch that already carries it.
+     */
+    static List<Batch> coalesce(List<Entry> entries) {
+        List<Batch> batches = new ArrayList<>();
+        Map<String, Batch> byId = new HashMap<>();
+        Batch text = null;
+        StringBuilder joined = new StringBuilder();
+        int joinedBytes = 0;
+
+        for (Entry e : entries) {
+            Batch same = byId.get(e.id);
+            if (same != null) {
+                same.ids.add(e.id);
+                same.oldest = Math.min(same.oldest, e.created);
+                continue;
+            }
+
+            String t = plainText(e.payload);
+            int bytes = t != null ? TextPipeline.jsonBytes(t) : 0;
+            // "\n\n" escapes to 4 bytes
+            if (t != null && text != null && joinedBytes + 4 + bytes <= MAX_PAYLOAD_BYTES) {
+                joined.append("\n\n").append(t);
+                joinedBytes += 4 + bytes;
+                text.parts++;
+                text.ids.add(e.id);
+                text.oldest = Math.min(text.oldest, e.created);
+                byId.put(e.id, text);
+                continue;
+            }
+
+            if (text != null && text.parts > 1) text.payload = textPayload(joined);
+            Batch b = new Batch();
+            b.ids.add(e.id);
+            b.payload = e.payload;
+            b.oldest = e.created;
+            batches.add(b);
+            byId.put(e.id, b);
+            if (t != null) {
+                text = b;
+                joined.setLength(0);
+                joined.append(t);
+                joinedBytes = "{\"text\":\"\"}".length() + bytes;
+            } else {
+                text = null;
+            }
+        }
+        if (text != null && text.parts > 1) text.payload = textPayload(joined);
+        return batches;
+    }
+
+    private static String plainText(String payload) {
+        try {
+            JsonNode node = MAPPER.readTree(payload);
+            if (node.isObject() && node.size() == 1 && node.path("text").isTextual()) return node.get("text").asText();
+        } catch (IOException ignore) {
+        }
+        return null;
+    }
+
+    private static String textPayload(CharSequence text) {
+        ObjectNode node = MAPPER.createObjectNode();
+        node.put("text", text.toString());
+        return node.toString();
+    }
+
+    static Delivery post(String url, String payload) {
+        long start = System.nanoTime();
+        Delivery d = send(url, payload);
+        HTTP_LATENCY.observeSince(start);
+        Metrics.counter("codex_slack_http_responses_total", "Slack webhook responses by status code (0: no response)",
+                "status", Integer.toString(d.status)).inc();
+        return d;
+    }
+
+    private static Delivery send(String url, String payload) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(REQUEST_TIMEOUT)
+                    .header("Content-Type", "application/json; charset=UTF-8")
+                    .POST(HttpRequest.BodyPublishers.ofString(payload, StandardCharsets.UTF_8))
+                    .build();
+            HttpResponse<String> response = Http.CLIENT.send(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8));
+            long retryAfter = response.headers().firstValue("Retry-After").map(SlackOutbox::retryAfterMillis).orElse(0L);
+            return new Delivery(response.statusCode(), retryAfter, response.statusCode() / 100 == 2 ? null : response.body());
+        } catch (IOException e) {
+            return new Delivery(0, 0, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            // Malformed URL: will never succeed
+            return new Delivery(400, 0, e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Delivery(0, 0, "interrupted");
+        }
+    }
+
+    // Delay-seconds or an HTTP-date
+    static long retryAfterMillis(String value) {
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            try {
+                return Math.max(0, ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli()
+                        - System.currentTimeMillis());
+            } catch (RuntimeException ignore) {
+                return 0;
+            }
+        }
+    }
+
+    private static String describe(Delivery d) {
+        return (d.status == 0 ? "no response" : "HTTP " + d.status) + (d.error == null || d.error.isEmpty() ? "" : " - " + d.error);
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                          Log files                                                             *//
+    //**********************************************************************************************************************************//
+
+    /** Parse complete lines appended since {@code offset[0]}; unacked entries join {@code pending}. */
+    private void readNew(long[] offset, Set<String> acked, Map<String, Entry> pending) throws IOException {
+        if (!Files.exists(outboxFile)) return;
+        try (FileChannel in = FileChannel.open(outboxFile, StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size < offset[0]) offset[0] = 0;
+            if (size == offset[0]) return;
+
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(Integer.MAX_VALUE - 8, size - offset[0]));
+            while (buf.hasRemaining() && in.read(buf, offset[0] + buf.position()) > 0) {
+                // keep reading
+            }
+            byte[] bytes = buf.array();
+            int start = 0;
+            for (int i = 0; i < buf.position(); i++) {
+                if (bytes[i] != '\n') continue;
+                parseEntry(bytes, start, i - start, acked, pending);
+                start = i + 1;
+            }
+            // A trailing partial line is re-read once its writer finishes it
+            offset[0] += start;
+        }
+    }
+
+    private static void parseEntry(byte[] bytes, int off, int len, Set<String> acked, Map<String, Entry> pending) {
+        if (len == 0) return;
+        try {
+            Entry e = MAPPER.readValue(bytes, off, len, Entry.class);
+            if (e.id != null && e.url != null && e.payload != null && !acked.contains(e.id)) pending.put(e.id, e);
+        } catch (IOException ignore) {
+            // Torn line from a crashed writer
+        }
+    }
+
+    private Set<String> readAcked() throws IOException {
+        Set<String> acked = new HashSet<>();
+        if (!Files.exists(ackFile)) return acked;
+        for (String line : Files.readAllLines(ackFile, StandardCharsets.UTF_8)) {
+            try {
+                Ack a = MAPPER.readValue(line, Ack.class);
+                if (a.ids != null) acked.addAll(a.ids);
+            } catch (IOException ignore) {
+            }
+        }
+        return acked;
+    }
+
+    private void ack(List<String> ids, String result, Set<String> acked, Map<String, Entry> pending) throws IOException {
+        Ack a = new Ack();
+        a.ids = ids;
+        a.result = result;
+        a.at = System.currentTimeMillis();
+        appendLine(ackFile, MAPPER.writeValueAsString(a));
+        acked.addAll(ids);
+        for (String id : ids) pending.remove(id);
+    }
+
+    private void deadLetter(Batch batch, Delivery d) throws IOException {
+        ObjectNode node = MAPPER.createObjectNode();
+        node.putPOJO("ids", batch.ids);
+        node.put("payload", batch.payload);
+        node.put("reason", describe(d));
+        node.put("at", System.currentTimeMillis());
+        appendLine(deadFile, node.toString());
+    }
+
+    /** Once everything is acked and the log is large, start both logs over (under the writers' lock). */
+    private void compactIfLarge(long[] offset, Set<String> acked) throws IOException {
+        if (!Files.exists(outboxFile) || Files.size(outboxFile) < COMPACT_BYTES) return;
+        synchronized (SlackOutbox.class) {
+            try (FileChannel lockChannel = FileChannel.open(appendLock, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                lockChannel.lock();
+                // Something arrived since the last read: not everything is acked after all
+                if (Files.size(outboxFile) != offset[0]) return;
+                try (FileChannel out = FileChannel.open(outboxFile, StandardOpenOption.WRITE)) {
+                    out.truncate(0);
+                    out.force(true);
+                }
+                Files.deleteIfExists(ackFile);
+                offset[0] = 0;
+                acked.clear();
+            }
+        }
+    }
+
+    private static void appendLine(Path file, String line) throws IOException {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            ByteBuffer buf = ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) out.write(buf);
+            out.force(false);
+        }
+    }
+
+    private static boolean endsWithNewline(FileChannel ch, long size) throws IOException {
+        ByteBuffer last = ByteBuffer.allocate(1);
+        ch.read(last, size - 1);
+        return last.get(0) == '\n';
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) position += ch.write(buf, position);
+    }
+}
@@ -0,0 +1,569 @@
+package org.jaysabva.codexsetup;
+
+/**
+ * Single-pass text transforms shared by the notifier and the indexer.
+ *
+ * Every step is a {@link Sink} that forwards characters to the next one, so a chain such as
+ * unescape → mrkdwn → JSON escape reads its input once and writes into one reused buffer instead
+ * of building a String per step. Output is character for character what the former
+ * replace/regex chains produced; the preview chain stops reading once its length cap is reached.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+final class TextPipeline {
+
+    static final int PREVIEW_LIMIT = 120;
+
+    // Larger buffers are dropped after use rather than kept alive per thread
+    private static final int MAX_RETAINED = 1 << 20;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(512));
+
+    private static final String JIRA_TAG = "[JIRA-EXPLAIN-";
+
+    private TextPipeline() {
+    }
+
+    interface Sink {
+        void put(char c);
+
+        /** End of input: flush anything held back. */
+        default void end() {
+        }
+
+        /** True once more input can no longer change the result. */
+        default boolean done() {
+            return false;
+        }
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                          Chains                                                                *//
+    //**********************************************************************************************************************************//
+
+    /** Session picker preview: strip tags → collapse whitespace and trim → cap at 120 chars. */
+    static String preview(String text) {
+        StringBuilder out = buffer();
+        feed(text, new Untag(new Squash(out, true, PREVIEW_LIMIT)));
+        return result(out);
+    }
+
+    /** Tags removed, ends trimmed. */
+    static String stripTags(String text) {
+        StringBuilder out = buffer();
+        feed(text, new Untag(new Squash(out, false, Integer.MAX_VALUE)));
+        return result(out);
+    }
+
+    /** Whitespace runs collapsed to one space, trimmed, capped at {@code limit} chars ("..." included). */
+    static String squash(String text, int limit) {
+        StringBuilder out = buffer();
+        feed(text, new Squash(out, true, limit));
+        return result(out);
+    }
+
+    static String mrkdwn(String markdown) {
+        StringBuilder out = buffer();
+        feed(markdown, mrkdwn(new Out(out)));
+        return result(out);
+    }
+
+    /** Markdown → Slack mrkdwn → JSON string body. */
+    static String mrkdwnJson(String markdown) {
+        StringBuilder out = buffer();
+        feed(markdown, mrkdwn(new JsonEscape(new Out(out))));
+        return result(out);
+    }
+
+    /** Jira summary: unescape → drop the [JIRA-EXPLAIN-…] header line → mrkdwn → JSON string body. */
+    static String jiraJson(String escaped) {
+        StringBuilder out = buffer();
+        unescape(escaped, new JiraTag(mrkdwn(new JsonEscape(new Out(out)))));
+        return result(out);
+    }
+
+    /** UTF-8 size of {@link #mrkdwnJson(String)} without building it. */
+    static int mrkdwnJsonBytes(CharSequence markdown) {
+        Utf8Count count = new Utf8Count();
+        feed(markdown, mrkdwn(new JsonEscape(count)));
+        return count.bytes;
+    }
+
+    /** UTF-8 size of {@link #jsonEscape(String)} without building it. */
+    static int jsonBytes(CharSequence s) {
+        Utf8Count count = new Utf8Count();
+        feed(s, new JsonEscape(count));
+        return count.bytes;
+    }
+
+    static String unescape(String escaped) {
+        StringBuilder out = buffer();
+        unescape(escaped, new Out(out));
+        return result(out);
+    }
+
+    static String jsonEscape(String s) {
+        StringBuilder out = buffer();
+        feed(s, new JsonEscape(new Out(out)));
+        return result(out);
+    }
+
+    static String slackEscape(String s) {
+        StringBuilder out = buffer();
+        feed(s, new SlackEscape(new Out(out)));
+        return result(out);
+    }
+
+    /** **bold** → *bold*, [label](url) → &lt;url|label&gt;, leading "- " bullets → "• ". */
+    static Sink mrkdwn(Sink next) {
+        return new Stars(new Links(new Bullets(next)));
+    }
+
+    static void feed(CharSequence s, Sink sink) {
+        for (int i = 0, n = s.length(); i < n && !sink.done(); i++) {
+            sink.put(s.charAt(i));
+        }
+        sink.end();
+    }
+
+    /** Turn JSON escape sequences into real characters; broken escapes keep the escaped char. */
+    static void unescape(CharSequence s, Sink sink) {
+        int n = s.length();
+        for (int i = 0; i < n && !sink.done(); i++) {
+            char c = s.charAt(i);
+            if (c != '\\' || i + 1 >= n) {
+                sink.put(c);
+                continue;
+            }
+            char e = s.charAt(++i);
+            switch (e) {
+                case 'n':
+                    sink.put('\n');
+                    break;
+                case 'r':
+                    sink.put('\r');
+                    break;
+                case 't':
+                    sink.put('\t');
+                    break;
+                case 'u':
+                    if (i + 4 < n) {
+                        try {
+                            sink.put((char) Integer.parseInt(s.subSequence(i + 1, i + 5).toString(), 16));
+                            i += 4;
+                            break;
+                        } catch (NumberFormatException ignore) {
+                        }
+                    }
+                    sink.put(e);
+                    break;
+                default:
+                    // \" and \\ included
+                    sink.put(e);
+            }
+        }
+        sink.end();
+    }
+
+    private static StringBuilder buffer() {
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        return sb;
+    }
+
+    private static String result(StringBuilder out) {
+        String s = out.toString();
+        if (out.capacity() > MAX_RETAINED) BUFFER.remove();
+        return s;
+    }
+
+    //**********************************************************************************************************************************//
+    //*                                                          Stages                                                                *//
+    //**********************************************************************************************************************************//
+
+    abstract static class Stage implements Sink {
+        final Sink next;
+
+        Stage(Sink next) {
+            this.next = next;
+        }
+
+        @Override
+        public void end() {
+            next.end();
+        }
+
+        @Override
+        public boolean done() {
+            return next.done();
+        }
+
+        void emit(CharSequence s, int from, int to) {
+            for (int i = from; i < to; i++) next.put(s.charAt(i));
+        }
+    }
+
+    /** Appends to the output buffer. */
+    static final class Out implements Sink {
+        private final StringBuilder out;
+
+        Out(StringBuilder out) {
+            this.out = out;
+        }
+
+        @Override
+        public void put(char c) {
+            out.append(c);
+        }
+    }
+
+    /** Counts the UTF-8 bytes of what it is fed; a surrogate pair adds up to 4. */
+    static final class Utf8Count implements Sink {
+        int bytes;
+
+        @Override
+        public void put(char c) {
+            bytes += c < 0x80 ? 1 : c < 0x800 || Character.isSurrogate(c) ? 2 : 3;
+        }
+    }
+
+    /**
+     * Terminal stage writing straight into the buffer: drops leading and trailing chars ≤ ' '
+     * (as {@link String#trim()}), optionally folds runs of {@code \s} into one space, and caps the
+     * result at {@code limit} chars with a "..." tail. Done as soon as the cap is certain.
+     */
+    static final class Squash implements Sink {
+        private final StringBuilder out;
+        private final boolean collapse;
+        private final int limit;
+        // Output length up to the last char that trim would keep
+        private int kept;
+        private boolean done;
+
+        Squash(StringBuilder out, boolean collapse, int limit) {
+            this.out = out;
+            this.collapse = collapse;
+            this.limit = limit;
+        }
+
+        @Override
+        public void put(char c) {
+            if (done) return;
+            if (c > ' ') {
+                out.append(c);
+                kept = out.length();
+                done = kept > limit;
+            } else if (out.length() > 0) {
+                if (!collapse || !isRegexSpace(c)) out.append(c);
+                else if (out.charAt(out.length() - 1) != ' ') out.append(' ');
+            }
+        }
+
+        @Override
+        public void end() {
+            out.setLength(kept);
+            if (kept > limit) {
+                out.setLength(limit - 3);
+                out.append("...");
+            }
+        }
+
+        @Override
+        public boolean done() {
+            return done;
+        }
+    }
+
+    /** Removes {@code <…>} tags (at least one char inside); an unclosed '<' stays as text. */
+    static final class Untag extends Stage {
+        private final StringBuilder tag = new StringBuilder();
+
+        Untag(Sink next) {
+            super(next);
+        }
+
+        @Override
+        public void put(char c) {
+            if (tag.length() == 0) {
+                if (c == '<') tag.append(c);
+                else next.put(c);
+            } else if (c != '>') {
+                tag.append(c);
+            } else {
+                // "<>" is not a tag
+                if (tag.length() == 1) {
+                    next.put('<');
+                    next.put('>');
+                }
+                tag.setLength(0);
+            }
+        }
+
+        @Override
+        public void end() {
+            emit(tag, 0, tag.length());
+            tag.setLength(0);
+            super.end();
+        }
+    }
+
+    /** "**" → "*", left to right. */
+    static final class Stars extends Stage {
+        private boolean star;
+
+        Stars(Sink next) {
+            super(next);
+        }
+
+        @Override
+        public void put(char c) {
+            if (c == '*') {
+                if (star) next.put('*');
+                star = !star;
+                return;
+            }
+            if (star) {
+                next.put('*');
+                star = false;
+            }
+            next.put(c);
+        }
+
+        @Override
+        public void end() {
+            if (star) next.put('*');
+            star = false;
+            super.end();
+        }
+    }
+
+    /**
+     * Base for stages matching a bracketed pattern from '['. Chars are held while a match is still
+     * possible; on a mismatch the '[' is released and the rest is re-read, so a later '[' inside
+     * the held text can still start a match, the same way a regex find moves on by one char.
+     */
+    abstract static class Bracketed extends Stage {
+        final StringBuilder held = new StringBuilder();
+        // Index of the closing ']' in held, once seen
+        int close = -1;
+        private final StringBuilder queue = new StringBuilder();
+        private int qi;
+
+        Bracketed(Sink next) {
+            super(next);
+        }
+
+        abstract void step(char c);
+
+        @Override
+        public void put(char c) {
+            queue.append(c);
+            drain();
+        }
+
+        void mismatch() {
+            next.put(held.charAt(0));
+            queue.insert(qi, held, 1, held.length());
+            reset();
+        }
+
+        void reset() {
+            held.setLength(0);
+            close = -1;
+        }
+
+        private void drain() {
+            while (qi < queue.length()) step(queue.charAt(qi++));
+            queue.setLength(0);
+            qi = 0;
+        }
+
+        @Override
+        public void end() {
+            while (held.length() > 0) {
+                mismatch();
+                drain();
+            }
+            super.end();
+        }
+    }
+
+    /** [label](url) → &lt;url|label&gt;; label and url are both non-empty. */
+    static final class Links extends Bracketed {
+        Links(Sink next) {
+            super(next);
+        }
+
+        @Override
+        void step(char c) {
+            if (held.length() == 0) {
+                if (c == '[') held.append(c);
+                else next.put(c);
+                return;
+            }
+            held.append(c);
+            int at = held.length() - 1;
+            if (close < 0) {
+                if (c == ']') {
+                    if (at == 1) mismatch();
+                    else close = at;
+                }
+            } else if (at == close + 1) {
+                if (c != '(') mismatch();
+            } else if (c == ')') {
+                if (at == close + 2) {
+                    mismatch();
+                    return;
+                }
+                next.put('<');
+                emit(held, close + 2, at);
+                next.put('|');
+                emit(held, 1, close);
+                next.put('>');
+                reset();
+            }
+        }
+    }
+
+    /** Drops the first "[JIRA-EXPLAIN-…]\n" header; everything after it passes through. */
+    static final class JiraTag extends Bracketed {
+        private boolean dropped;
+
+        JiraTag(Sink next) {
+            super(next);
+        }
+
+        @Override
+        void step(char c) {
+            if (dropped) {
+                next.put(c);
+                return;
+            }
+            if (held.length() == 0) {
+                if (c == '[') held.append(c);
+                else next.put(c);
+                return;
+            }
+            held.append(c);
+            int at = held.length() - 1;
+            if (at < JIRA_TAG.length()) {
+                if (c != JIRA_TAG.charAt(at)) mismatch();
+            } else if (close < 0) {
+                if (c == ']') {
+                    if (at == JIRA_TAG.length()) mismatch();
+                    else close = at;
+                }
+            } else if (c == '\n') {
+                reset();
+                dropped = true;
+            } else {
+                mismatch();
+            }
+        }
+    }
+
+    /** "-" followed by whitespace at the start of a line → "• ". */
+    static final class Bullets extends Stage {
+        // Start of input counts as a line start
+        private char prev = '\n';
+        private boolean dash;
+
+        Bullets(Sink next) {
+            super(next);
+        }
+
+        @Override
+        public void put(char c) {
+            if (dash) {
+                dash = false;
+                if (isRegexSpace(c)) {
+                    next.put('•');
+                    next.put(' ');
+                    prev = c;
+                    return;
+                }
+                next.put('-');
+            } else if (c == '-' && isLineStart(prev)) {
+                dash = true;
+                prev = c;
+                return;
+            }
+            next.put(c);
+            prev = c;
+        }
+
+        @Override
+        public void end() {
+            if (dash) next.put('-');
+            dash = false;
+            super.end();
+        }
+
+        // Line terminators after which (?m)^ matches
+        private static boolean isLineStart(char prev) {
+            return prev == '\n' || prev == '\r' || prev == '\u0085' || prev == '\u2028' || prev == '\u2029';
+        }
+    }
+
+    static final class JsonEscape extends Stage {
+        JsonEscape(Sink next) {
+            super(next);
+        }
+
+        @Override
+        public void put(char c) {
+            switch (c) {
+                case '\\':
+                    next.put('\\');
+                    next.put('\\');
+                    break;
+                case '"':
+                    next.put('\\');
+                    next.put('"');
+                    break;
+                case '\n':
+                    next.put('\\');
+                    next.put('n');
+                    break;
+                case '\r':
+                    break;
+                case '\t':
+                    next.put('\\');
+                    next.put('t');
+                    break;
+                default:
+                    next.put(c);
+            }
+        }
+    }
+
+    /** Minimal escaping for Slack mrkdwn: &amp; &lt; &gt;. */
+    static final class SlackEscape extends Stage {
+        SlackEscape(Sink next) {
+            super(next);
+        }
+
+        @Override
+        public void put(char c) {
+            switch (c) {
+                case '&':
+                    emit("&amp;", 0, 5);
+                    break;
+                case '<':
+                    emit("&lt;", 0, 4);
+                    break;
+                case '>':
+                    emit("&gt;", 0, 4);
+                    break;
+                default:
+                    next.put(c);
+            }
+        }
+    }
+
+    // The \s class: [ \t\n\x0B\f\r]
+    private static boolean isRegexSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+}
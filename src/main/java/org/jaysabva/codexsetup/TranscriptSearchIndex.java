@@ -0,0 +1,715 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Positional inverted index over the user and assistant message text of every session.
+ *
+ * Layout (big-endian):
+ * <pre>
+ * header   : magic, version, docCount, termCount, postingsPos, termTablePos
+ * docs     : int[docCount + 1] offsets, then per doc: path, sessionId, cwd, branch, time,
+ *            size, mtime, epoch millis
+ * postings : per term: varint docs, then per doc: varint doc delta, varint count, varint position deltas
+ * terms    : int[termCount + 1] term offsets, int[termCount + 1] postings offsets, UTF-8 term blob
+ * </pre>
+ * Terms are sorted, so a lookup is a binary search over the mapped term table. Documents are
+ * numbered newest first (ties by path), so a search walks the posting lists in result order and
+ * stops decoding them once it has {@code --limit} hits. Offsets are ints: a write that would pass
+ * 2 GiB fails instead of wrapping.
+ *
+ * Updates merge the previous index with freshly extracted documents term by term, dropping
+ * documents whose file changed or disappeared; only new or changed transcripts are read, in
+ * batches of {@value #BATCH_DOCS} whose postings are spilled to sorted segment files next to the
+ * index. One merge of the old index and all segments then writes the new file through
+ * {@link AtomicFiles}, so even a cold build writes it once.
+ *
+ * Date: 18/10/26
+ *
+ * @author Jay Sabva
+ */
+class TranscriptSearchIndex {
+
+    private static final int MAGIC = 0x43584654; // "CXFT"
+    // 2: documents numbered newest first
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 6 * Integer.BYTES;
+    // Positions jump between messages so a phrase never matches across two of them
+    private static final int MESSAGE_GAP = 8;
+    private static final int MAX_TERM_LENGTH = 64;
+    // Transcripts extracted per merge pass; bounds memory on a cold build
+    private static final int BATCH_DOCS = 2000;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final byte[] INPUT_TEXT_MARKER = "input_text".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] OUTPUT_TEXT_MARKER = "output_text".getBytes(StandardCharsets.UTF_8);
+    private static final Metrics.Timer PHASE_SEARCH = CodexIndexGenerator.phase("search");
+
+    static class Doc {
+        String path;
+        String sessionId;
+        String cwd;
+        String branch;
+        String time;
+        long size;
+        long mtime;
+        long epochMillis;
+    }
+
+    private final ByteBuffer buf;
+    private final int docCount;
+    private final int termCount;
+    private final int postingsPos;
+    private final int termOffsetsPos;
+    private final int postingOffsetsPos;
+    private final int termBlobPos;
+
+    private TranscriptSearchIndex(ByteBuffer buf) throws IOException {
+        this.buf = buf;
+        if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) {
+            throw new IOException("Not a search index (or unsupported version)");
+        }
+        this.docCount = buf.getInt(8);
+        this.termCount = buf.getInt(12);
+        this.postingsPos = buf.getInt(16);
+        this.termOffsetsPos = buf.getInt(20);
+        this.postingOffsetsPos = termOffsetsPos + (termCount + 1) * Integer.BYTES;
+        this.termBlobPos = postingOffsetsPos + (termCount + 1) * Integer.BYTES;
+    }
+
+    static TranscriptSearchIndex open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (ch.size() > Integer.MAX_VALUE) throw new IOException("Search index larger than 2 GiB: " + file);
+            return new TranscriptSearchIndex(ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size()));
+        }
+    }
+
+    static Path indexPath(CodexIndexGenerator.Options opts) {
+        return opts.output.resolveSibling("codex_sessions_search.idx");
+    }
+
+    // ---------------------------------------------------------------- reading
+
+    Doc doc(int id) {
+        int pos = HEADER_SIZE + (docCount + 1) * Integer.BYTES + buf.getInt(HEADER_SIZE + id * Integer.BYTES);
+        int[] cursor = {pos};
+        Doc d = new Doc();
+        d.path = readString(cursor);
+        d.sessionId = readString(cursor);
+        d.cwd = readString(cursor);
+        d.branch = readString(cursor);
+        d.time = readString(cursor);
+        d.size = buf.getLong(cursor[0]);
+        d.mtime = buf.getLong(cursor[0] + 8);
+        d.epochMillis = buf.getLong(cursor[0] + 16);
+        return d;
+    }
+
+    private String readString(int[] cursor) {
+        int len = buf.getInt(cursor[0]);
+        cursor[0] += Integer.BYTES;
+        if (len < 0) return null;
+        byte[] bytes = new byte[len];
+        buf.get(cursor[0], bytes);
+        cursor[0] += len;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private String term(int index) {
+        int from = buf.getInt(termOffsetsPos + index * Integer.BYTES);
+        int to = buf.getInt(termOffsetsPos + (index + 1) * Integer.BYTES);
+        byte[] bytes = new byte[to - from];
+        buf.get(termBlobPos + from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int findTerm(String term) {
+        int lo = 0, hi = termCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = term(mid).compareTo(term);
+            if (cmp < 0) lo = mid + 1;
+            else if (cmp > 0) hi = mid - 1;
+            else return mid;
+        }
+        return -1;
+    }
+
+    /** Forward walk over one term's postings; positions are decoded only for documents asked for. */
+    private final class Cursor {
+        private final int[] cursor = new int[1];
+        private int remaining;
+        int doc = -1;
+        private int last;
+        private int count;
+        private int positionsPos;
+
+        // Index -1 (an unknown term) gives an empty list
+        Cursor(int index) {
+            if (index < 0) return;
+            cursor[0] = postingsPos + buf.getInt(postingOffsetsPos + index * Integer.BYTES);
+            remaining = readVarint(cursor);
+        }
+
+        /** Move to the first document at or after {@code target}; false when there is none. */
+        boolean advanceTo(int target) {
+            while (doc < target) {
+                if (remaining == 0) return false;
+                remaining--;
+                last += readVarint(cursor);
+                count = readVarint(cursor);
+                positionsPos = cursor[0];
+                for (int i = 0; i < count; i++) {
+                    while (buf.get(cursor[0]++) < 0) {
+                    }
+                }
+                doc = last;
+            }
+            return true;
+        }
+
+        int[] positions() {
+            int[] at = {positionsPos};
+            int[] positions = new int[count];
+            int p = 0;
+            for (int j = 0; j < count; j++) {
+                p += readVarint(at);
+                positions[j] = p;
+            }
+            return positions;
+        }
+    }
+
+    private int readVarint(int[] cursor) {
+        int value = 0, shift = 0;
+        while (true) {
+            byte b = buf.get(cursor[0]++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) return value;
+            shift += 7;
+        }
+    }
+
+    /**
+     * Sessions matching every clause of {@code query}, newest first. Bare words are single-term
+     * clauses and "quoted text" is a phrase; words that tokenize to several terms act as phrases.
+     */
+    List<Doc> search(String query, int limit) {
+        List<List<Cursor>> clauses = new ArrayList<>();
+        List<Cursor> all = new ArrayList<>();
+        for (List<String> clause : parseQuery(query)) {
+            List<Cursor> cursors = new ArrayList<>();
+            for (String term : clause) cursors.add(new Cursor(findTerm(term)));
+            clauses.add(cursors);
+            all.addAll(cursors);
+        }
+        List<Doc> hits = new ArrayList<>();
+        if (all.isEmpty()) return hits;
+
+        // Leapfrog every cursor to a document they share, then check the phrases there. Ids run
+        // newest first, so the first matches are the answer
+        int doc = 0;
+        next:
+        while (hits.size() < limit) {
+            for (Cursor c : all) {
+                if (!c.advanceTo(doc)) break next;
+                if (c.doc > doc) {
+                    doc = c.doc;
+                    continue next;
+                }
+            }
+            boolean matched = true;
+            for (List<Cursor> clause : clauses) {
+                if (!phraseMatches(clause)) {
+                    matched = false;
+                    break;
+                }
+            }
+            if (matched) hits.add(doc(doc));
+            doc++;
+        }
+        return hits;
+    }
+
+    // All cursors of the clause sit on the same document
+    private static boolean phraseMatches(List<Cursor> clause) {
+        if (clause.size() == 1) return true;
+        int[][] rest = new int[clause.size()][];
+        for (int k = 1; k < clause.size(); k++) rest[k] = clause.get(k).positions();
+        outer:
+        for (int start : clause.get(0).positions()) {
+            for (int k = 1; k < rest.length; k++) {
+                if (Arrays.binarySearch(rest[k], start + k) < 0) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    static List<List<String>> parseQuery(String query) {
+        List<List<String>> clauses = new ArrayList<>();
+        String[] parts = query.split("\"", -1);
+        for (int i = 0; i < parts.length; i++) {
+            if (i % 2 == 1) {
+                List<String> phrase = tokenize(parts[i]);
+                if (!phrase.isEmpty()) clauses.add(phrase);
+            } else {
+                for (String word : parts[i].trim().split("\\s+")) {
+                    List<String> terms = tokenize(word);
+                    if (!terms.isEmpty()) clauses.add(terms);
+                }
+            }
+        }
+        return clauses;
+    }
+
+    /** Lowercased runs of letters and digits, capped at {@value #MAX_TERM_LENGTH} chars. */
+    static List<String> tokenize(String text) {
+        List<String> out = new ArrayList<>();
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (sb.length() < MAX_TERM_LENGTH) sb.append(Character.toLowerCase(c));
+            } else if (sb.length() > 0) {
+                out.add(sb.toString());
+                sb.setLength(0);
+            }
+        }
+        return out;
+    }
+
+    // ---------------------------------------------------------------- CLI
+
+    static void run(CodexIndexGenerator.Options opts) {
+        Path file = indexPath(opts);
+        if (!Files.isRegularFile(file)) {
+            System.err.println("Search index not found: " + file + " (build it with --search-index)");
+            System.exit(1);
+        }
+        long start = System.nanoTime();
+        try {
+            List<Doc> hits = open(file).search(opts.searchQuery, opts.searchLimit);
+            PHASE_SEARCH.since(start);
+            for (Doc d : hits) {
+                System.out.println(String.join("\t", field(d.time), field(d.sessionId),
+                        field(d.cwd), field(d.branch), field(d.path)));
+            }
+        } catch (IOException e) {
+            System.err.println("Failed reading search index: " + e.getMessage());
+            System.exit(1);
+        }
+    }
+
+    private static String field(String s) {
+        return s == null || s.isEmpty() ? "-" : s.replace('\t', ' ');
+    }
+
+    // ---------------------------------------------------------------- updating
+
+    /**
+     * Bring the index at {@code file} in line with {@code manifest}: documents whose file is gone or
+     * changed are dropped, new or changed transcripts are read in full and merged in batches.
+     */
+    static void update(Path file, SessionManifest manifest, CodexIndexGenerator.Options opts) throws IOException {
+        TranscriptSearchIndex base = null;
+        if (Files.isRegularFile(file)) {
+            try {
+                base = open(file);
+            } catch (IOException e) {
+                System.err.println("Rebuilding unreadable search index " + file + ": " + e.getMessage());
+            }
+        }
+
+        // Keep documents whose file is unchanged, re-read everything else
+        List<Doc> kept = new ArrayList<>();
+        int[] remap = new int[base != null ? base.docCount : 0];
+        Set<String> known = new HashSet<>();
+        for (int id = 0; id < remap.length; id++) {
+            Doc d = base.doc(id);
+            int slot = manifest.slot(d.path);
+            if (slot >= 0 && manifest.fileSize(slot) == d.size && manifest.mtime(slot) == d.mtime) {
+                remap[id] = kept.size();
+                kept.add(d);
+                known.add(d.path);
+            } else {
+                remap[id] = -1;
+            }
+        }
+
+        List<Doc> fresh = new ArrayList<>();
+        for (String path : manifest.paths()) {
+            if (!known.contains(path)) fresh.add(docFor(path, manifest, manifest.slot(path)));
+        }
+        if (base != null && fresh.isEmpty() && kept.size() == remap.length) return;
+
+        // Numbering depends only on document metadata, so it is final before any transcript is read
+        List<Doc> merged = new ArrayList<>(kept);
+        merged.addAll(fresh);
+        int[] newId = numberNewestFirst(merged);
+        Doc[] docs = new Doc[merged.size()];
+        for (int i = 0; i < docs.length; i++) docs[newId[i]] = merged.get(i);
+
+        Path dir = file.toAbsolutePath().getParent();
+        Files.createDirectories(dir);
+        String prefix = file.getFileName() + ".";
+        List<Path> segments = new ArrayList<>();
+        Path postings = null;
+        try {
+            // Each batch's postings are spilled sorted by term; memory holds one batch at a time
+            for (int from = 0; from < fresh.size(); from += BATCH_DOCS) {
+                List<Doc> batch = fresh.subList(from, Math.min(fresh.size(), from + BATCH_DOCS));
+                Path segment = Files.createTempFile(dir, prefix, ".seg");
+                segments.add(segment);
+                writeSegment(segment, extractAll(batch, opts.parallelism), newId, kept.size() + from);
+            }
+
+            // One merge of the old index and every segment; the header is known once it is done
+            postings = Files.createTempFile(dir, prefix, ".postings");
+            List<String> terms = new ArrayList<>();
+            List<Integer> postingOffsets = new ArrayList<>();
+            mergePostings(postings, base, remap, newId, segments, terms, postingOffsets);
+            Path postingsFile = postings;
+            AtomicFiles.write(file, out -> writeIndex(out, docs, postingsFile, terms, postingOffsets));
+        } finally {
+            for (Path segment : segments) Files.deleteIfExists(segment);
+            if (postings != null) Files.deleteIfExists(postings);
+        }
+    }
+
+    private static Doc docFor(String path, SessionManifest manifest, int slot) {
+        Doc d = new Doc();
+        d.path = path;
+        d.size = manifest.fileSize(slot);
+        d.mtime = manifest.mtime(slot);
+        d.sessionId = manifest.sessionId(slot);
+        d.cwd = manifest.cwd(slot);
+        d.branch = manifest.branch(slot);
+        d.time = manifest.time(slot);
+        d.epochMillis = manifest.epochMillis(slot);
+        return d;
+    }
+
+    private static List<Map<String, int[]>> extractAll(List<Doc> docs, int parallelism) {
+        if (parallelism <= 1 || docs.size() < 2) {
+            List<Map<String, int[]>> out = new ArrayList<>(docs.size());
+            for (Doc d : docs) out.add(extract(Path.of(d.path)));
+            return out;
+        }
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            return pool.submit(() -> docs.parallelStream()
+                    .map(d -> extract(Path.of(d.path)))
+                    .collect(Collectors.toList())).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while indexing transcripts", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed indexing transcripts", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** term → ascending positions for one transcript; unreadable files index as empty. */
+    static Map<String, int[]> extract(Path file) {
+        Map<String, List<Integer>> positions = new HashMap<>();
+        int[] next = {0};
+
+        try (InputStream in = SessionHeadReader.open(file)) {
+            SessionHeadReader.readLines(in, Long.MAX_VALUE, (b, off, len) -> {
+                if (!SessionHeadReader.contains(b, off, len, INPUT_TEXT_MARKER)
+                        && !SessionHeadReader.contains(b, off, len, OUTPUT_TEXT_MARKER)) return true;
+                JsonNode root;
+                try {
+                    root = MAPPER.readTree(b, off, len);
+                } catch (IOException ignore) {
+                    return true;
+                }
+                JsonNode payload = root.path("payload");
+                if (!"response_item".equals(root.path("type").asText())
+                        || !"message".equals(payload.path("type").asText())) return true;
+                boolean user = "user".equals(payload.path("role").asText());
+                if (!user && !"assistant".equals(payload.path("role").asText())) return true;
+
+                for (JsonNode c : payload.path("content")) {
+                    String text = c.path("text").asText(null);
+                    if (text == null || (user && !CodexIndexGenerator.isUsefulMessage(text))) continue;
+                    for (String term : tokenize(text)) {
+                        positions.computeIfAbsent(term, k -> new ArrayList<>()).add(next[0]++);
+                    }
+                    next[0] += MESSAGE_GAP;
+                }
+                return true;
+            });
+        } catch (IOException e) {
+            System.err.println("Failed to index " + file + ": " + e.getMessage());
+        }
+
+        Map<String, int[]> out = new HashMap<>(positions.size() * 2);
+        for (Map.Entry<String, List<Integer>> e : positions.entrySet()) {
+            out.put(e.getKey(), e.getValue().stream().mapToInt(Integer::intValue).toArray());
+        }
+        return out;
+    }
+
+    // Document → id: newest first, ties by path
+    private static int[] numberNewestFirst(List<Doc> docs) {
+        Integer[] order = new Integer[docs.size()];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> docs.get(i).epochMillis).reversed()
+                .thenComparing(i -> docs.get(i).path));
+        int[] newId = new int[order.length];
+        for (int id = 0; id < order.length; id++) newId[order[id]] = id;
+        return newId;
+    }
+
+    /** One batch's postings by term: term count, then per term its postings as {doc id, positions}. */
+    private static void writeSegment(Path segment, List<Map<String, int[]>> batchTerms, int[] newId, int firstDoc)
+            throws IOException {
+        TreeMap<String, List<int[]>> byTerm = new TreeMap<>();
+        for (int i = 0; i < batchTerms.size(); i++) {
+            int docId = newId[firstDoc + i];
+            for (Map.Entry<String, int[]> e : batchTerms.get(i).entrySet()) {
+                int[] entry = new int[e.getValue().length + 1];
+                entry[0] = docId;
+                System.arraycopy(e.getValue(), 0, entry, 1, e.getValue().length);
+                byTerm.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(entry);
+            }
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(segment), 1 << 16))) {
+            out.writeInt(byTerm.size());
+            for (Map.Entry<String, List<int[]>> e : byTerm.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeInt(e.getValue().size());
+                for (int[] entry : e.getValue()) {
+                    out.writeInt(entry.length);
+                    for (int v : entry) out.writeInt(v);
+                }
+            }
+        }
+    }
+
+    /** A spilled segment read back term by term, in term order. */
+    private static final class Segment implements Closeable {
+        private final DataInputStream in;
+        private int remaining;
+        String term;
+        List<int[]> postings;
+
+        Segment(Path file) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16));
+            remaining = in.readInt();
+        }
+
+        boolean next() throws IOException {
+            if (remaining == 0) return false;
+            remaining--;
+            term = in.readUTF();
+            int count = in.readInt();
+            postings = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                int[] entry = new int[in.readInt()];
+                for (int j = 0; j < entry.length; j++) entry[j] = in.readInt();
+                postings.add(entry);
+            }
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * Merge the kept documents' postings in {@code base} with every segment into the postings
+     * section at {@code file}, recording each term and its offset in that section.
+     */
+    private static void mergePostings(Path file, TranscriptSearchIndex base, int[] remap, int[] newId, List<Path> segmentFiles,
+                                      List<String> terms, List<Integer> postingOffsets) throws IOException {
+        List<Segment> segments = new ArrayList<>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16))) {
+            PriorityQueue<Segment> heads = new PriorityQueue<>(Comparator.comparing((Segment seg) -> seg.term));
+            for (Path f : segmentFiles) {
+                Segment seg = new Segment(f);
+                segments.add(seg);
+                if (seg.next()) heads.add(seg);
+            }
+
+            ByteArrayOutputStream termPostings = new ByteArrayOutputStream();
+            int oldIndex = 0;
+            int oldCount = base != null ? base.termCount : 0;
+            String nextOld = oldIndex < oldCount ? base.term(oldIndex) : null;
+
+            // Sorted streams of terms, merged
+            while (nextOld != null || !heads.isEmpty()) {
+                String term = heads.isEmpty() || (nextOld != null && nextOld.compareTo(heads.peek().term) <= 0)
+                        ? nextOld : heads.peek().term;
+                termPostings.reset();
+                List<int[]> postings = new ArrayList<>();
+
+                if (term.equals(nextOld)) {
+                    Cursor old = base.new Cursor(oldIndex);
+                    while (old.advanceTo(old.doc + 1)) {
+                        if (remap[old.doc] < 0) continue;
+                        int[] positions = old.positions();
+                        int[] entry = new int[positions.length + 1];
+                        entry[0] = newId[remap[old.doc]];
+                        System.arraycopy(positions, 0, entry, 1, positions.length);
+                        postings.add(entry);
+                    }
+                    oldIndex++;
+                    nextOld = oldIndex < oldCount ? base.term(oldIndex) : null;
+                }
+                while (!heads.isEmpty() && heads.peek().term.equals(term)) {
+                    Segment seg = heads.poll();
+                    postings.addAll(seg.postings);
+                    if (seg.next()) heads.add(seg);
+                }
+                if (postings.isEmpty()) continue;
+
+                postings.sort(Comparator.comparingInt(entry -> entry[0]));
+                writeVarint(termPostings, postings.size());
+                int lastDoc = 0;
+                for (int[] entry : postings) lastDoc = writePosting(termPostings, entry[0], lastDoc, entry, 1);
+                terms.add(term);
+                postingOffsets.add(out.size());
+                termPostings.writeTo(out);
+                checkSize(out);
+            }
+            postingOffsets.add(out.size());
+        } finally {
+            for (Segment seg : segments) seg.close();
+        }
+    }
+
+    // Every section's size is known by now, so the header goes out first and nothing is patched
+    private static void writeIndex(OutputStream stream, Doc[] docs, Path postings, List<String> terms,
+                                   List<Integer> postingOffsets) throws IOException {
+        List<byte[]> encodedDocs = new ArrayList<>(docs.length);
+        long docBytes = 0;
+        for (Doc d : docs) {
+            byte[] b = encodeDoc(d);
+            encodedDocs.add(b);
+            docBytes += b.length;
+        }
+        List<byte[]> encodedTerms = new ArrayList<>(terms.size());
+        long termBytes = 0;
+        for (String t : terms) {
+            byte[] b = t.getBytes(StandardCharsets.UTF_8);
+            encodedTerms.add(b);
+            termBytes += b.length;
+        }
+        long postingsPos = HEADER_SIZE + (docs.length + 1L) * Integer.BYTES + docBytes;
+        long termTablePos = postingsPos + Files.size(postings);
+        checkOffset(termTablePos + 2 * (terms.size() + 1L) * Integer.BYTES + termBytes);
+
+        DataOutputStream out = new DataOutputStream(stream);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(docs.length);
+        out.writeInt(terms.size());
+        out.writeInt((int) postingsPos);
+        out.writeInt((int) termTablePos);
+
+        int offset = 0;
+        for (byte[] b : encodedDocs) {
+            out.writeInt(offset);
+            offset += b.length;
+        }
+        out.writeInt(offset);
+        for (byte[] b : encodedDocs) out.write(b);
+
+        Files.copy(postings, out);
+
+        offset = 0;
+        for (byte[] b : encodedTerms) {
+            out.writeInt(offset);
+            offset += b.length;
+        }
+        out.writeInt(offset);
+        for (int o : postingOffsets) out.writeInt(o);
+        for (byte[] b : encodedTerms) out.write(b);
+        out.flush();
+    }
+
+    // DataOutputStream.size() sticks at Integer.MAX_VALUE once it passes it, and every offset in
+    // the file is an int
+    private static void checkSize(DataOutputStream out) throws IOException {
+        checkOffset(out.size());
+    }
+
+    private static void checkOffset(long size) throws IOException {
+        if (size >= Integer.MAX_VALUE) {
+            throw new IOException("Search index would exceed 2 GiB, past what its int offsets can address");
+        }
+    }
+
+    private static int writePosting(ByteArrayOutputStream out, int docId, int lastDoc, int[] positions, int from) {
+        writeVarint(out, docId - lastDoc);
+        writeVarint(out, positions.length - from);
+        int last = 0;
+        for (int i = from; i < positions.length; i++) {
+            writeVarint(out, positions[i] - last);
+            last = positions[i];
+        }
+        return docId;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    private static byte[] encodeDoc(Doc d) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (String s : new String[]{d.path, d.sessionId, d.cwd, d.branch, d.time}) {
+            if (s == null) {
+                out.writeInt(-1);
+            } else {
+                byte[] b = s.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+        }
+        out.writeLong(d.size);
+        out.writeLong(d.mtime);
+        out.writeLong(d.epochMillis);
+        return bytes.toByteArray();
+    }
+}
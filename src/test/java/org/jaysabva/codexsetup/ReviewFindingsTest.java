@@ -0,0 +1,103 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ReviewFindingsTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void keepsEveryP0WhenOverCapacity() {
+        Random rnd = new Random(7);
+        ReviewFindings findings = new ReviewFindings(ReviewFindings.MAX_FINDINGS);
+        List<String> p0 = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            // P0s spread through the stream, the rest mostly low severity
+            int priority = i % 17 == 0 ? 0 : 1 + rnd.nextInt(3);
+            SlackNotifier.Finding f = finding("f" + i, priority, rnd.nextDouble());
+            if (priority == 0) p0.add(f.title);
+            findings.offer(f);
+        }
+
+        List<SlackNotifier.Finding> kept = findings.ranked();
+        assertEquals(ReviewFindings.MAX_FINDINGS, kept.size());
+        assertEquals(200 - ReviewFindings.MAX_FINDINGS, findings.dropped());
+        List<String> keptTitles = new ArrayList<>();
+        for (SlackNotifier.Finding f : kept) keptTitles.add(f.title);
+        assertTrue(keptTitles.containsAll(p0), "every P0 survives: " + p0);
+        assertTrue(!findings.droppedByPriority().containsKey(0), "no P0 dropped");
+    }
+
+    @Test
+    void ranksMostSevereFirstThenConfidence() {
+        ReviewFindings findings = new ReviewFindings(3);
+        findings.offer(finding("p3", 3, 0.99));
+        findings.offer(finding("p1-low", 1, 0.2));
+        findings.offer(finding("p0", 0, 0.1));
+        findings.offer(finding("p1-high", 1, 0.9));
+        findings.offer(finding("p2", 2, 0.5));
+
+        List<String> titles = new ArrayList<>();
+        for (SlackNotifier.Finding f : findings.ranked()) titles.add(f.title);
+        assertEquals(List.of("p0", "p1-high", "p1-low"), titles);
+        assertEquals(Map.of(2, 1, 3, 1), findings.droppedByPriority());
+    }
+
+    @Test
+    void overflowSummaryCountsDroppedPerPriority() {
+        ReviewFindings findings = new ReviewFindings(2);
+        findings.offer(finding("keep-0", 0, 0.5));
+        findings.offer(finding("drop-3a", 3, 0.5));
+        findings.offer(finding("keep-1", 1, 0.5));
+        findings.offer(finding("drop-2", 2, 0.5));
+        findings.offer(finding("drop-3b", 3, 0.5));
+
+        ObjectNode payload = MAPPER.createObjectNode().put("overall_explanation", "done");
+        List<String> messages = SlackNotifier.buildFindingsSlackMessages(payload, findings, SlackOutbox.MAX_PAYLOAD_BYTES);
+
+        assertEquals(1, messages.size());
+        String text = messages.get(0);
+        assertTrue(text.indexOf("keep-0") < text.indexOf("keep-1"), text);
+        assertTrue(!text.contains("drop-"), text);
+        assertTrue(text.contains("…and 3 more findings not shown (P2: 1, P3: 2)"), text);
+        assertTrue(text.contains("*Explanation:* done"), text);
+    }
+
+    @Test
+    void messageCapCutsLeastSevere() {
+        ReviewFindings findings = new ReviewFindings(ReviewFindings.MAX_FINDINGS);
+        for (int i = 0; i < ReviewFindings.MAX_FINDINGS; i++) {
+            // The P0s arrive last, after enough P3s to fill every message
+            SlackNotifier.Finding f = i < ReviewFindings.MAX_FINDINGS - 5 ? finding("minor-" + i, 3, 0.5) : finding("severe-" + i, 0, 0.5);
+            f.body = "x".repeat(3000);
+            findings.offer(f);
+        }
+
+        List<String> messages = SlackNotifier.buildFindingsSlackMessages(MAPPER.createObjectNode(), findings, SlackOutbox.MAX_PAYLOAD_BYTES);
+        String all = String.join("\n", messages);
+        for (int i = ReviewFindings.MAX_FINDINGS - 5; i < ReviewFindings.MAX_FINDINGS; i++) {
+            assertTrue(all.contains("severe-" + i + " "), "P0 severe-" + i + " is sent");
+        }
+        assertTrue(all.indexOf("severe-") < all.indexOf("minor-"), "P0s render first");
+        assertTrue(all.contains("not shown (P3: "), all.substring(Math.max(0, all.length() - 300)));
+    }
+
+    private static SlackNotifier.Finding finding(String title, int priority, double confidence) {
+        SlackNotifier.Finding f = new SlackNotifier.Finding();
+        f.title = title;
+        f.body = "body of " + title;
+        f.priority = priority;
+        f.confidence_score = confidence;
+        return f;
+    }
+}
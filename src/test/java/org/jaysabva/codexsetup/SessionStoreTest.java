@@ -0,0 +1,165 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SessionStoreTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String[] CWDS = { "/u/a/proj1", "/u/a/proj2", "/u/b", "/z", null };
+    private static final String[] BRANCHES = { "main", "develop", "feature/x", "", " ", null };
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void groupedMatchesComparatorReference() {
+        Random rnd = new Random(20);
+        for (int round = 0; round < 500; round++) {
+            List<CodexIndexGenerator.SessionInfo> sessions = randomSessions(rnd, rnd.nextInt(60));
+            assertEquals(reference(sessions), SessionStore.of(sessions).grouped(), "round " + round);
+        }
+    }
+
+    @Test
+    void byBranchAndEntriesFollowIndexOrder() {
+        Random rnd = new Random(21);
+        List<CodexIndexGenerator.SessionInfo> sessions = randomSessions(rnd, 300);
+        SessionStore store = SessionStore.of(sessions);
+        Map<String, Map<String, List<CodexIndexGenerator.SessionInfo>>> expected = reference(sessions);
+
+        assertEquals(sessions.size(), store.size());
+        for (Map.Entry<String, Map<String, List<CodexIndexGenerator.SessionInfo>>> cwd : expected.entrySet()) {
+            assertEquals(cwd.getValue(), store.byBranch(cwd.getKey()));
+
+            List<CodexIndexGenerator.SessionInfo> flat = new ArrayList<>();
+            for (List<CodexIndexGenerator.SessionInfo> run : cwd.getValue().values()) flat.addAll(run);
+            List<CodexIndexGenerator.SessionInfo> fromEntries = new ArrayList<>();
+            for (BinarySessionIndex.SessionEntry e : store.entries(cwd.getKey())) {
+                assertEquals(BinarySessionIndex.epochMillis(e.info.time), e.epochMillis);
+                fromEntries.add(e.info);
+            }
+            assertEquals(flat, fromEntries);
+        }
+        assertEquals(Map.of(), store.byBranch("/not/indexed"));
+        assertEquals(List.of(), store.entries("/not/indexed"));
+    }
+
+    @Test
+    void emptyStore() {
+        SessionStore store = SessionStore.of(new ArrayList<>());
+        assertEquals(0, store.size());
+        assertEquals(Map.of(), store.grouped());
+    }
+
+    @Test
+    void writeJsonMatchesJackson() throws IOException {
+        Random rnd = new Random(22);
+        ObjectMapper indented = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+        for (int round = 0; round < 50; round++) {
+            SessionStore store = SessionStore.of(randomSessions(rnd, rnd.nextInt(40)));
+            Map<String, Map<String, List<CodexIndexGenerator.SessionInfo>>> grouped = store.grouped();
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            store.writeJson(out, false);
+            assertEquals(MAPPER.writeValueAsString(grouped), out.toString(StandardCharsets.UTF_8));
+            out.reset();
+            store.writeJson(out, true);
+            assertEquals(indented.writeValueAsString(grouped), out.toString(StandardCharsets.UTF_8));
+
+            for (String cwd : List.of("/u/a/proj1", SessionStore.NO_CWD, "/not/indexed")) {
+                out.reset();
+                store.writeJson(out, cwd);
+                assertEquals(MAPPER.writeValueAsString(store.byBranch(cwd)), out.toString(StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    @Test
+    void manifestStoreMatchesSessionList() throws IOException {
+        Random rnd = new Random(23);
+        List<CodexIndexGenerator.SessionInfo> sessions = randomSessions(rnd, 200);
+        SessionManifest manifest = new SessionManifest();
+        Map<String, CodexIndexGenerator.SessionInfo> byPath = new TreeMap<>();
+        for (CodexIndexGenerator.SessionInfo s : sessions) {
+            Path file = Files.createFile(dir.resolve("rollout-" + s.sessionId + ".jsonl"));
+            s.jsonlFilePath = file.toString();
+            BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class);
+            manifest.put(file, attrs, s);
+            // Some files become unreadable, some are removed: neither keeps an entry
+            int fate = rnd.nextInt(10);
+            if (fate == 0) manifest.put(file, attrs, null);
+            else if (fate == 1) manifest.remove(file);
+            else byPath.put(s.jsonlFilePath, s);
+            assertEquals(fate > 1, manifest.isCurrent(file, attrs));
+        }
+        // Input order is path order, as when the index is built from a scan
+        Map<String, Map<String, List<CodexIndexGenerator.SessionInfo>>> expected =
+                SessionStore.of(new ArrayList<>(byPath.values())).grouped();
+        assertEquals(expected, manifest.store().grouped());
+        assertEquals(expected, manifest.copy().store().grouped());
+        assertEquals(byPath.keySet(), manifest.sessionPaths());
+
+        Path saved = dir.resolve("manifest.json");
+        manifest.save(saved);
+        SessionManifest loaded = SessionManifest.load(saved);
+        assertEquals(manifest.size(), loaded.size());
+        assertEquals(expected, loaded.store().grouped());
+
+        SessionManifest carried = new SessionManifest();
+        for (String path : loaded.paths()) carried.carry(loaded, path);
+        assertEquals(expected, carried.store().grouped());
+    }
+
+    // The grouping as it was written before the columnar store: TreeMaps and a stable sort, newest first
+    private static Map<String, Map<String, List<CodexIndexGenerator.SessionInfo>>> reference(
+            List<CodexIndexGenerator.SessionInfo> sessions) {
+        Map<String, Map<String, List<CodexIndexGenerator.SessionInfo>>> grouped = new TreeMap<>();
+        for (CodexIndexGenerator.SessionInfo s : sessions) {
+            String cwd = s.file != null ? s.file : SessionStore.NO_CWD;
+            String branch = s.branch != null && !s.branch.isBlank() ? s.branch : SessionStore.NO_BRANCH;
+            grouped.computeIfAbsent(cwd, k -> new TreeMap<>()).computeIfAbsent(branch, k -> new ArrayList<>()).add(s);
+        }
+        Comparator<CodexIndexGenerator.SessionInfo> newestFirst =
+                Comparator.comparingLong((CodexIndexGenerator.SessionInfo s) -> BinarySessionIndex.epochMillis(s.time)).reversed();
+        for (Map<String, List<CodexIndexGenerator.SessionInfo>> byBranch : grouped.values()) {
+            for (List<CodexIndexGenerator.SessionInfo> run : byBranch.values()) run.sort(newestFirst);
+        }
+        return grouped;
+    }
+
+    private static List<CodexIndexGenerator.SessionInfo> randomSessions(Random rnd, int n) {
+        List<CodexIndexGenerator.SessionInfo> out = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            CodexIndexGenerator.SessionInfo s = new CodexIndexGenerator.SessionInfo();
+            s.file = CWDS[rnd.nextInt(CWDS.length)];
+            s.branch = BRANCHES[rnd.nextInt(BRANCHES.length)];
+            // Few distinct instants, so ties are common; some unparseable ones sort as epoch 0
+            int kind = rnd.nextInt(10);
+            s.time = kind == 0 ? null : kind == 1 ? "not-a-time" : Instant.ofEpochSecond(1_750_000_000L + rnd.nextInt(20) * 60).toString();
+            s.sessionId = "sid-" + i;
+            s.firstUserMessage = rnd.nextInt(8) == 0 ? null : "message ✓ " + i;
+            s.jsonlFilePath = "/sessions/rollout-" + i + ".jsonl";
+            out.add(s);
+        }
+        return out;
+    }
+}
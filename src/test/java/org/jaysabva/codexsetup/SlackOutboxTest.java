@@ -0,0 +1,112 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SlackOutboxTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void identicalPayloadsStaySeparateNotifications() {
+        // Two sessions finishing with the same summary are two notifications, not one
+        String ticket = "{\"text\":\"done\",\"ticket\":\"ABC-1\"}";
+        List<SlackOutbox.Entry> entries = List.of(
+                entry("a", ticket, 3), entry("b", ticket, 1),
+                entry("c", "{\"text\":\"done\"}", 4), entry("d", "{\"text\":\"done\"}", 5));
+
+        List<SlackOutbox.Batch> batches = SlackOutbox.coalesce(entries);
+        assertEquals(3, batches.size());
+        assertEquals(List.of("a"), batches.get(0).ids);
+        assertEquals(List.of("b"), batches.get(1).ids);
+        assertEquals(ticket, batches.get(1).payload);
+        assertEquals(List.of("c", "d"), batches.get(2).ids);
+        assertEquals("{\"text\":\"done\\n\\ndone\"}", batches.get(2).payload);
+        assertEquals(2, batches.get(2).parts);
+    }
+
+    @Test
+    void retriedAppendRidesWithItsBatch() {
+        String ticket = "{\"text\":\"done\",\"ticket\":\"ABC-1\"}";
+        List<SlackOutbox.Entry> entries = List.of(
+                entry("a", ticket, 3), entry("t", "{\"text\":\"one\"}", 4), entry("a", ticket, 1));
+
+        List<SlackOutbox.Batch> batches = SlackOutbox.coalesce(entries);
+        assertEquals(2, batches.size());
+        assertEquals(List.of("a", "a"), batches.get(0).ids);
+        assertEquals(ticket, batches.get(0).payload);
+        assertEquals(1, batches.get(0).oldest);
+        assertEquals(List.of("t"), batches.get(1).ids);
+    }
+
+    @Test
+    void textJoinsStayWithinByteBudget() throws Exception {
+        Random rnd = new Random(14);
+        List<SlackOutbox.Entry> entries = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            // Multi-byte and escaped characters, so chars and bytes disagree
+            String text = "msg " + i + " ✅ \"quoted\"\n" + "é".repeat(rnd.nextInt(800));
+            entries.add(entry("id" + i, MAPPER.createObjectNode().put("text", text).toString(), i));
+        }
+
+        List<SlackOutbox.Batch> batches = SlackOutbox.coalesce(entries);
+        assertTrue(batches.size() > 1 && batches.size() < entries.size(), batches.size() + " batches");
+        Set<String> ids = new HashSet<>();
+        StringBuilder all = new StringBuilder();
+        for (SlackOutbox.Batch b : batches) {
+            int bytes = b.payload.getBytes(StandardCharsets.UTF_8).length;
+            assertTrue(bytes <= SlackOutbox.MAX_PAYLOAD_BYTES, bytes + " bytes");
+            assertEquals(b.ids.size(), b.parts);
+            ids.addAll(b.ids);
+            if (all.length() > 0) all.append("\n\n");
+            all.append(MAPPER.readTree(b.payload).get("text").asText());
+        }
+        assertEquals(entries.size(), ids.size());
+
+        StringBuilder expected = new StringBuilder();
+        for (SlackOutbox.Entry e : entries) {
+            if (expected.length() > 0) expected.append("\n\n");
+            expected.append(MAPPER.readTree(e.payload).get("text").asText());
+        }
+        assertEquals(expected.toString(), all.toString(), "texts joined in order, none lost");
+    }
+
+    @Test
+    void richPayloadsGoOutAlone() {
+        String jira = "{\"text\":\"explained\",\"ticket\":\"ABC-2\"}";
+        List<SlackOutbox.Entry> entries = List.of(
+                entry("t1", "{\"text\":\"one\"}", 1),
+                entry("j", jira, 2),
+                entry("t2", "{\"text\":\"two\"}", 3),
+                entry("t3", "{\"text\":\"three\"}", 4),
+                entry("t1-again", "{\"text\":\"one\"}", 5));
+
+        List<SlackOutbox.Batch> batches = SlackOutbox.coalesce(entries);
+        assertEquals(3, batches.size());
+        assertEquals(List.of("t1"), batches.get(0).ids);
+        assertEquals("{\"text\":\"one\"}", batches.get(0).payload);
+        assertEquals(List.of("j"), batches.get(1).ids);
+        assertEquals(jira, batches.get(1).payload);
+        assertEquals(List.of("t2", "t3", "t1-again"), batches.get(2).ids);
+        assertEquals("{\"text\":\"two\\n\\nthree\\n\\none\"}", batches.get(2).payload);
+    }
+
+    private static SlackOutbox.Entry entry(String id, String payload, long created) {
+        SlackOutbox.Entry e = new SlackOutbox.Entry();
+        e.id = id;
+        e.url = "https://hooks.example/1";
+        e.payload = payload;
+        e.created = created;
+        return e;
+    }
+}
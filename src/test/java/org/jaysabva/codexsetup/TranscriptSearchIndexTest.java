@@ -0,0 +1,178 @@
+package org.jaysabva.codexsetup;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TranscriptSearchIndexTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String[] WORDS = { "index", "query", "merge", "shard", "fix", "bug", "the", "slack", "cache", "daemon" };
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void searchMatchesBruteForce() throws IOException {
+        Random rnd = new Random(8);
+        Map<Path, List<List<String>>> corpus = new TreeMap<>();
+        for (int i = 0; i < 120; i++) corpus.put(writeSession(rnd, i), null);
+        for (Path p : corpus.keySet()) corpus.put(p, messages(p));
+
+        Path index = dir.resolve("codex_sessions_search.idx");
+        CodexIndexGenerator.Options opts = new CodexIndexGenerator.Options();
+        opts.parallelism = 2;
+
+        // Half first, then the rest merged in, with some of the first half rewritten in between
+        List<Path> files = new ArrayList<>(corpus.keySet());
+        TranscriptSearchIndex.update(index, manifest(files.subList(0, 60)), opts);
+        for (int i = 0; i < 60; i += 7) {
+            Path p = files.get(i);
+            Instant time = Instant.parse(CodexIndexGenerator.parseSessionFile(p, Long.MAX_VALUE).time);
+            writeSession(rnd, p, time, i);
+            Files.setLastModifiedTime(p, FileTime.fromMillis(Files.getLastModifiedTime(p).toMillis() + 1000));
+            corpus.put(p, messages(p));
+        }
+        TranscriptSearchIndex.update(index, manifest(files), opts);
+
+        TranscriptSearchIndex searcher = TranscriptSearchIndex.open(index);
+        for (int round = 0; round < 400; round++) {
+            String query = randomQuery(rnd);
+            int limit = rnd.nextBoolean() ? 1 + rnd.nextInt(10) : 1000;
+            List<String> got = new ArrayList<>();
+            for (TranscriptSearchIndex.Doc d : searcher.search(query, limit)) got.add(d.path);
+            assertEquals(expected(corpus, query, limit), got, query + " --limit " + limit);
+        }
+    }
+
+    @Test
+    void unknownTermsMatchNothing() throws IOException {
+        Random rnd = new Random(9);
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 5; i++) files.add(writeSession(rnd, i));
+        Path index = dir.resolve("codex_sessions_search.idx");
+        TranscriptSearchIndex.update(index, manifest(files), new CodexIndexGenerator.Options());
+
+        TranscriptSearchIndex searcher = TranscriptSearchIndex.open(index);
+        assertEquals(0, searcher.search("nosuchterm", 10).size());
+        assertEquals(0, searcher.search("index nosuchterm", 10).size());
+        assertEquals(0, searcher.search("", 10).size());
+    }
+
+    // ---------------------------------------------------------------- reference
+
+    private static List<String> expected(Map<Path, List<List<String>>> corpus, String query, int limit) throws IOException {
+        List<List<String>> clauses = TranscriptSearchIndex.parseQuery(query);
+        List<Path> hits = new ArrayList<>();
+        if (clauses.isEmpty()) return new ArrayList<>();
+        for (Map.Entry<Path, List<List<String>>> e : corpus.entrySet()) {
+            boolean all = true;
+            for (List<String> clause : clauses) all &= containsPhrase(e.getValue(), clause);
+            if (all) hits.add(e.getKey());
+        }
+        Map<Path, Long> times = new TreeMap<>();
+        for (Path p : hits) times.put(p, BinarySessionIndex.epochMillis(CodexIndexGenerator.parseSessionFile(p, Long.MAX_VALUE).time));
+        hits.sort(Comparator.comparingLong((Path p) -> times.get(p)).reversed().thenComparing(Path::toString));
+
+        List<String> out = new ArrayList<>();
+        for (Path p : hits.subList(0, Math.min(limit, hits.size()))) out.add(p.toString());
+        return out;
+    }
+
+    // A phrase never spans two message texts
+    private static boolean containsPhrase(List<List<String>> messages, List<String> phrase) {
+        for (List<String> terms : messages) {
+            for (int i = 0; i + phrase.size() <= terms.size(); i++) {
+                if (terms.subList(i, i + phrase.size()).equals(phrase)) return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<List<String>> messages(Path file) throws IOException {
+        List<List<String>> out = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            var node = MAPPER.readTree(line);
+            if (!"response_item".equals(node.path("type").asText())) continue;
+            for (var c : node.path("payload").path("content")) out.add(TranscriptSearchIndex.tokenize(c.path("text").asText()));
+        }
+        return out;
+    }
+
+    private static String randomQuery(Random rnd) {
+        StringBuilder q = new StringBuilder();
+        int clauses = 1 + rnd.nextInt(3);
+        for (int c = 0; c < clauses; c++) {
+            if (c > 0) q.append(' ');
+            if (rnd.nextInt(3) == 0) {
+                q.append('"').append(word(rnd)).append(' ').append(word(rnd)).append('"');
+            } else {
+                q.append(rnd.nextInt(20) == 0 ? "missing" : word(rnd));
+            }
+        }
+        return q.toString();
+    }
+
+    // ---------------------------------------------------------------- fixtures
+
+    private Path writeSession(Random rnd, int i) throws IOException {
+        // Spread over a few months; ties are broken by path
+        Instant time = Instant.parse("2025-01-01T00:00:00Z").plusSeconds(rnd.nextInt(100_000) * 60L);
+        String day = time.toString().substring(0, 10).replace('-', '/');
+        Path file = dir.resolve("sessions").resolve(day).resolve("rollout-" + i + ".jsonl");
+        Files.createDirectories(file.getParent());
+        writeSession(rnd, file, time, i);
+        return file;
+    }
+
+    private static void writeSession(Random rnd, Path file, Instant time, int i) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        ObjectNode meta = MAPPER.createObjectNode().put("timestamp", time.toString()).put("type", "session_meta");
+        meta.putObject("payload").put("id", "s" + i).put("timestamp", time.toString()).put("cwd", "/repo/" + (i % 3));
+        sb.append(meta).append('\n');
+        int messages = 1 + rnd.nextInt(4);
+        for (int m = 0; m < messages; m++) {
+            boolean user = m % 2 == 0;
+            ObjectNode line = MAPPER.createObjectNode().put("timestamp", time.toString()).put("type", "response_item");
+            ObjectNode payload = line.putObject("payload").put("type", "message").put("role", user ? "user" : "assistant");
+            var content = payload.putArray("content");
+            for (int c = 0; c < 1 + rnd.nextInt(2); c++) {
+                StringBuilder text = new StringBuilder();
+                for (int w = 0; w < 1 + rnd.nextInt(12); w++) text.append(w == 0 ? "" : rnd.nextBoolean() ? " " : ", ").append(word(rnd));
+                content.addObject().put("type", user ? "input_text" : "output_text").put("text", text.toString());
+            }
+            sb.append(line).append('\n');
+        }
+        Files.writeString(file, sb.toString());
+    }
+
+    private static SessionManifest manifest(List<Path> files) throws IOException {
+        SessionManifest m = new SessionManifest();
+        for (Path p : files) {
+            BasicFileAttributes attrs = Files.readAttributes(p, BasicFileAttributes.class);
+            m.put(p, attrs, CodexIndexGenerator.parseSessionFile(p, SessionHeadReader.DEFAULT_HEAD_BYTES));
+        }
+        return m;
+    }
+
+    private static String word(Random rnd) {
+        return WORDS[rnd.nextInt(WORDS.length)];
+    }
+}